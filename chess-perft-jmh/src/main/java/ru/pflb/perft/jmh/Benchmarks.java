@@ -0,0 +1,28 @@
+package ru.pflb.perft.jmh;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Запуск всех (или выбранных регулярным выражением) бенчмарков с профайлером GC, который показывает
+ * число выделенных байт на операцию: {@code java -cp target/benchmarks.jar ru.pflb.perft.jmh.Benchmarks [regexp]}.
+ * Для остальных опций и профайлеров подходит обычный {@code java -jar target/benchmarks.jar -h}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder().addProfiler(GCProfiler.class);
+        if (args.length == 0) {
+            options.include(Benchmarks.class.getPackage().getName() + ".*");
+        }
+        for (String regexp : args) {
+            options.include(regexp);
+        }
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,77 @@
+package ru.pflb.perft.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.pflb.perft.ChessBoard;
+import ru.pflb.perft.Color;
+import ru.pflb.perft.MoveList;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Генерация ходов, make/takeBack и проверка шаха в одном узле, на обеих реализациях доски.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MoveGenBenchmark {
+
+    @Param({"SHORT", "LONG", "PINS", "DOUBLE_CHECK", "FULL"})
+    public Positions position;
+
+    @Param({"mailbox", "compiled", "bitboard"})
+    public String board;
+
+    private ChessBoard chessBoard;
+
+    private final MoveList moves = new MoveList();
+
+    private final MoveList legal = new MoveList();
+
+    @Setup
+    public void setUp() {
+        chessBoard = position.board(board);
+        chessBoard.genLegalMoves(legal);
+    }
+
+    @Benchmark
+    public int genAllMoves() {
+        chessBoard.genAllMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int genLegalMoves() {
+        chessBoard.genLegalMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int countLegalMoves() {
+        return chessBoard.countLegalMoves();
+    }
+
+    /**
+     * Делает и откатывает все легальные ходы узла. Число ходов зависит от позиции, поэтому результат - время на узел,
+     * а не на один ход.
+     */
+    @Benchmark
+    public long makeTakeBack() {
+        long keys = 0;
+        for (int i = 0; i < legal.size(); i++) {
+            chessBoard.makeMove(legal.get(i));
+            keys ^= chessBoard.getKey();
+            chessBoard.takeBack(legal.get(i));
+        }
+        return keys;
+    }
+
+    @Benchmark
+    public boolean isCheck() {
+        return chessBoard.isCheck(Color.WHITE) | chessBoard.isCheck(Color.BLACK);
+    }
+}
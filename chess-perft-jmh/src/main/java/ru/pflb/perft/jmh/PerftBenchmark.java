@@ -0,0 +1,45 @@
+package ru.pflb.perft.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.pflb.perft.ChessBoard;
+import ru.pflb.perft.Perft;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Perft#count(ChessBoard, int, Perft.Mode)} на фиксированной глубине.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+
+    @Param({"SHORT", "LONG", "FULL"})
+    public Positions position;
+
+    @Param({"4"})
+    public int depth;
+
+    @Param({"PSEUDO_LEGAL", "LEGAL", "COUNT_ONLY"})
+    public Perft.Mode mode;
+
+    @Param({"mailbox", "compiled", "bitboard"})
+    public String board;
+
+    private ChessBoard chessBoard;
+
+    @Setup
+    public void setUp() {
+        chessBoard = position.board(board);
+    }
+
+    @Benchmark
+    public long perft() {
+        return Perft.count(chessBoard, depth, mode);
+    }
+}
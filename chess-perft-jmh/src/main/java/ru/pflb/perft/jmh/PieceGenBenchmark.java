@@ -0,0 +1,68 @@
+package ru.pflb.perft.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import ru.pflb.perft.Board;
+import ru.pflb.perft.MoveList;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Генераторы отдельных фигур {@link Board}: у битбордов таких методов нет.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PieceGenBenchmark {
+
+    @Param({"SHORT", "LONG", "FULL"})
+    public Positions position;
+
+    private Board board;
+
+    private final MoveList moves = new MoveList();
+
+    @Setup
+    public void setUp() {
+        board = new Board(position.fen);
+    }
+
+    @Benchmark
+    public int genKingMoves() {
+        moves.clear();
+        board.genKingMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int genBishopMoves() {
+        moves.clear();
+        board.genBishopMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int genRookMoves() {
+        moves.clear();
+        board.genRookMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int genQueenMoves() {
+        moves.clear();
+        board.genQueenMoves(moves);
+        return moves.size();
+    }
+
+    @Benchmark
+    public int genKnightMoves() {
+        moves.clear();
+        board.genKnightMoves(moves);
+        return moves.size();
+    }
+}
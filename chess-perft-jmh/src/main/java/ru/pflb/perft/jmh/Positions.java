@@ -0,0 +1,57 @@
+package ru.pflb.perft.jmh;
+
+import ru.pflb.perft.BitboardBoard;
+import ru.pflb.perft.Board;
+import ru.pflb.perft.ChessBoard;
+import ru.pflb.perft.CompiledBoard;
+
+/**
+ * Набор позиций для бенчмарков: позиции из PerftTest и несколько позиций с особыми случаями генератора.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public enum Positions {
+
+    /**
+     * shortPerftTest: мало фигур, дерево почти целиком из ходов короля и ладьи.
+     */
+    SHORT("4kb2/8/8/8/8/8/8/4K2R w - -"),
+    /**
+     * longPerftTest: открытый король, много нелегальных псевдоходов.
+     */
+    LONG("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -"),
+    /**
+     * Связанные слон и конь, шах ферзем.
+     */
+    PINS("4k3/4r3/8/b7/8/2N5/3B4/4K2q w - -"),
+    /**
+     * Двойной шах: ходит только король.
+     */
+    DOUBLE_CHECK("4k3/8/8/8/8/5n2/8/r3K3 w - -"),
+    /**
+     * Полный комплект фигур без пешек.
+     */
+    FULL("r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -");
+
+    public final String fen;
+
+    Positions(String fen) {
+        this.fen = fen;
+    }
+
+    /**
+     * @param implementation {@code mailbox}, {@code compiled} или {@code bitboard}
+     */
+    public ChessBoard board(String implementation) {
+        switch (implementation) {
+            case "mailbox":
+                return new Board(fen);
+            case "compiled":
+                return new CompiledBoard(fen);
+            case "bitboard":
+                return new BitboardBoard(fen);
+            default:
+                throw new IllegalArgumentException("Неизвестная реализация доски: " + implementation);
+        }
+    }
+}
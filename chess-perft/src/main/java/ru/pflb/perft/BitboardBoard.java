@@ -0,0 +1,468 @@
+package ru.pflb.perft;
+
+import java.util.SplittableRandom;
+
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Color.WHITE;
+import static ru.pflb.perft.Piece.*;
+
+/**
+ * Доска на битбордах: по 64-битной маске на каждую фигуру и на занятость каждым цветом.
+ * Ходы короля и коня берутся из таблиц, ходы дальнобойщиков - из таблиц
+ * <a href="https://www.chessprogramming.org/Magic_Bitboards">магических битбордов</a>
+ * (fancy magic: своя длина таблицы для каждого поля). Магические числа подбираются при загрузке класса
+ * генератором с фиксированным зерном, поэтому таблицы одинаковы от запуска к запуску.
+ * <p>
+ * Внутри поля нумеруются a1=0, b1=1, ..., h8=63; наружу, в ходах и методах {@link ChessBoard}, -
+ * индексы mailbox120, как у {@link Board}. Ключ Зобриста считается по тем же таблицам, что и у {@link Board}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class BitboardBoard implements ChessBoard {
+
+    /**
+     * Поле mailbox120 для поля 0..63 и обратно (для полей за доской -1).
+     */
+    static final int[] SQ120 = new int[64], SQ64 = new int[120];
+
+    private static final long[] KNIGHT_ATTACKS = new long[64], KING_ATTACKS = new long[64];
+
+    private static final int[][] ROOK_DIRECTIONS = {{1, 0}, {-1, 0}, {0, 1}, {0, -1}};
+    private static final int[][] BISHOP_DIRECTIONS = {{1, 1}, {1, -1}, {-1, 1}, {-1, -1}};
+
+    private static final long[] ROOK_MASKS = new long[64], BISHOP_MASKS = new long[64];
+    private static final long[] ROOK_MAGICS = new long[64], BISHOP_MAGICS = new long[64];
+    private static final int[] ROOK_SHIFTS = new int[64], BISHOP_SHIFTS = new int[64];
+    private static final long[][] ROOK_TABLE = new long[64][], BISHOP_TABLE = new long[64][];
+
+    /**
+     * BETWEEN[a][b] - поля строго между a и b на общей линии, LINE[a][b] - вся линия через a и b (0, если ее нет).
+     */
+    private static final long[][] BETWEEN = new long[64][64], LINE = new long[64][64];
+
+    static {
+        for (int i = 0; i < 120; i++) {
+            SQ64[i] = -1;
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            // в mailbox120 вертикали идут от h к a: H1 = 21, A1 = 28
+            SQ120[sq] = 21 + (sq >> 3) * 10 + (7 - (sq & 7));
+            SQ64[SQ120[sq]] = sq;
+        }
+
+        int[][] knight = {{1, 2}, {2, 1}, {2, -1}, {1, -2}, {-1, -2}, {-2, -1}, {-2, 1}, {-1, 2}};
+        int[][] king = {{1, 1}, {1, 0}, {1, -1}, {0, 1}, {0, -1}, {-1, 1}, {-1, 0}, {-1, -1}};
+        for (int sq = 0; sq < 64; sq++) {
+            KNIGHT_ATTACKS[sq] = stepAttacks(sq, knight);
+            KING_ATTACKS[sq] = stepAttacks(sq, king);
+        }
+
+        SplittableRandom random = new SplittableRandom(0x2545F4914F6CDD1DL);
+        for (int sq = 0; sq < 64; sq++) {
+            ROOK_MASKS[sq] = relevantMask(sq, ROOK_DIRECTIONS);
+            BISHOP_MASKS[sq] = relevantMask(sq, BISHOP_DIRECTIONS);
+            ROOK_SHIFTS[sq] = 64 - Long.bitCount(ROOK_MASKS[sq]);
+            BISHOP_SHIFTS[sq] = 64 - Long.bitCount(BISHOP_MASKS[sq]);
+            ROOK_TABLE[sq] = new long[1 << Long.bitCount(ROOK_MASKS[sq])];
+            BISHOP_TABLE[sq] = new long[1 << Long.bitCount(BISHOP_MASKS[sq])];
+            ROOK_MAGICS[sq] = findMagic(sq, ROOK_MASKS[sq], ROOK_DIRECTIONS, ROOK_TABLE[sq], random);
+            BISHOP_MAGICS[sq] = findMagic(sq, BISHOP_MASKS[sq], BISHOP_DIRECTIONS, BISHOP_TABLE[sq], random);
+        }
+
+        for (int a = 0; a < 64; a++) {
+            for (int[][] directions : new int[][][]{ROOK_DIRECTIONS, BISHOP_DIRECTIONS}) {
+                for (int[] direction : directions) {
+                    long between = 0;
+                    for (int r = (a >> 3) + direction[0], f = (a & 7) + direction[1]; onBoard(r, f);
+                         r += direction[0], f += direction[1]) {
+                        int b = r << 3 | f;
+                        BETWEEN[a][b] = between;
+                        LINE[a][b] = slidingAttacks(a, 0, new int[][]{direction, {-direction[0], -direction[1]}})
+                                | 1L << a;
+                        between |= 1L << b;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Битборд каждой фигуры по {@link Piece#code}.
+     */
+    private final long[] pieces;
+
+    /**
+     * Занятость по {@link Color#code}.
+     */
+    private final long[] occupancy;
+
+    /**
+     * Фигура на каждом поле 0..63, чтобы знать, что берется.
+     */
+    private final Piece[] squares;
+
+    private Color sideToMove;
+
+    private long key;
+
+    public BitboardBoard(String fen) {
+        this(new Board(fen));
+    }
+
+    /**
+     * Строит битборды по любой другой реализации доски, например по {@link Board}.
+     */
+    public BitboardBoard(ChessBoard other) {
+        this.pieces = new long[12];
+        this.occupancy = new long[2];
+        this.squares = new Piece[64];
+        for (int sq = 0; sq < 64; sq++) {
+            Piece piece = other.getPiece(SQ120[sq]);
+            squares[sq] = piece;
+            if (piece != EMP) {
+                pieces[piece.code] |= 1L << sq;
+                occupancy[piece.getColor().code] |= 1L << sq;
+            }
+        }
+        this.sideToMove = other.getSideToMove();
+        this.key = other.getKey();
+    }
+
+    private BitboardBoard(BitboardBoard other) {
+        this.pieces = other.pieces.clone();
+        this.occupancy = other.occupancy.clone();
+        this.squares = other.squares.clone();
+        this.sideToMove = other.sideToMove;
+        this.key = other.key;
+    }
+
+    public BitboardBoard copy() {
+        return new BitboardBoard(this);
+    }
+
+    private static boolean onBoard(int rank, int file) {
+        return rank >= 0 && rank < 8 && file >= 0 && file < 8;
+    }
+
+    private static long stepAttacks(int sq, int[][] steps) {
+        long attacks = 0;
+        for (int[] step : steps) {
+            int r = (sq >> 3) + step[0], f = (sq & 7) + step[1];
+            if (onBoard(r, f)) {
+                attacks |= 1L << (r << 3 | f);
+            }
+        }
+        return attacks;
+    }
+
+    private static long slidingAttacks(int sq, long occupied, int[][] directions) {
+        long attacks = 0;
+        for (int[] direction : directions) {
+            for (int r = (sq >> 3) + direction[0], f = (sq & 7) + direction[1]; onBoard(r, f);
+                 r += direction[0], f += direction[1]) {
+                attacks |= 1L << (r << 3 | f);
+                if ((occupied & 1L << (r << 3 | f)) != 0) {
+                    break;
+                }
+            }
+        }
+        return attacks;
+    }
+
+    /**
+     * Поля лучей, занятость которых влияет на атаку: без последнего поля каждого луча, за ним луч все равно кончается.
+     */
+    private static long relevantMask(int sq, int[][] directions) {
+        long mask = 0;
+        for (int[] direction : directions) {
+            for (int r = (sq >> 3) + direction[0], f = (sq & 7) + direction[1];
+                 onBoard(r + direction[0], f + direction[1]); r += direction[0], f += direction[1]) {
+                mask |= 1L << (r << 3 | f);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Подбирает магическое число, при котором {@code (occupied * magic) >>> shift} без конфликтов отображает
+     * все подмножества маски в таблицу, и заполняет таблицу.
+     */
+    private static long findMagic(int sq, long mask, int[][] directions, long[] table, SplittableRandom random) {
+        int bits = Long.bitCount(mask);
+        int size = 1 << bits;
+        long[] occupancies = new long[size], attacks = new long[size];
+        // перебор всех подмножеств маски (carry-rippler)
+        long subset = 0;
+        for (int i = 0; i < size; i++) {
+            occupancies[i] = subset;
+            attacks[i] = slidingAttacks(sq, subset, directions);
+            subset = (subset - mask) & mask;
+        }
+
+        int[] epoch = new int[size];
+        for (int attempt = 1; ; attempt++) {
+            long magic = random.nextLong() & random.nextLong() & random.nextLong();
+            if (Long.bitCount((mask * magic) & 0xFF00000000000000L) < 6) {
+                continue;
+            }
+            boolean failed = false;
+            for (int i = 0; i < size && !failed; i++) {
+                int index = (int) ((occupancies[i] * magic) >>> (64 - bits));
+                if (epoch[index] != attempt) {
+                    epoch[index] = attempt;
+                    table[index] = attacks[i];
+                } else if (table[index] != attacks[i]) {
+                    failed = true;
+                }
+            }
+            if (!failed) {
+                return magic;
+            }
+        }
+    }
+
+    private static long rookAttacks(int sq, long occupied) {
+        return ROOK_TABLE[sq][(int) (((occupied & ROOK_MASKS[sq]) * ROOK_MAGICS[sq]) >>> ROOK_SHIFTS[sq])];
+    }
+
+    private static long bishopAttacks(int sq, long occupied) {
+        return BISHOP_TABLE[sq][(int) (((occupied & BISHOP_MASKS[sq]) * BISHOP_MAGICS[sq]) >>> BISHOP_SHIFTS[sq])];
+    }
+
+    private static Piece piece(Piece white, Piece black, Color color) {
+        return color == WHITE ? white : black;
+    }
+
+    public void genAllMoves(MoveList moves) {
+        moves.clear();
+        Color us = sideToMove;
+        long own = occupancy[us.code], occupied = own | occupancy[1 - us.code];
+        long targets = ~own;
+
+        Piece king = piece(W_KING, B_KING, us);
+        int kingSq = Long.numberOfTrailingZeros(pieces[king.code]);
+        addMoves(moves, kingSq, KING_ATTACKS[kingSq] & targets, king);
+
+        Piece bishop = piece(W_BISHOP, B_BISHOP, us);
+        for (long b = pieces[bishop.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            addMoves(moves, from, bishopAttacks(from, occupied) & targets, bishop);
+        }
+        Piece rook = piece(W_ROOK, B_ROOK, us);
+        for (long b = pieces[rook.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            addMoves(moves, from, rookAttacks(from, occupied) & targets, rook);
+        }
+        Piece queen = piece(W_QUEEN, B_QUEEN, us);
+        for (long b = pieces[queen.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            addMoves(moves, from, (rookAttacks(from, occupied) | bishopAttacks(from, occupied)) & targets, queen);
+        }
+        Piece knight = piece(W_KNIGHT, B_KNIGHT, us);
+        for (long b = pieces[knight.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            addMoves(moves, from, KNIGHT_ATTACKS[from] & targets, knight);
+        }
+        if (PerftStats.ENABLED) {
+            PerftStats.countMoves(moves);
+        }
+    }
+
+    private void addMoves(MoveList moves, int from, long targets, Piece piece) {
+        int from120 = SQ120[from];
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            Piece capture = squares[to];
+            moves.add(capture == EMP
+                    ? Moves.pack(from120, SQ120[to], piece)
+                    : Moves.pack(from120, SQ120[to], piece, capture));
+        }
+    }
+
+    public void genLegalMoves(MoveList moves) {
+        moves.clear();
+        genLegal(moves);
+    }
+
+    public int countLegalMoves() {
+        return genLegal(null);
+    }
+
+    /**
+     * Та же схема, что у {@link Board#genLegalMoves(MoveList)}: шахующие фигуры и связки считаются один раз,
+     * связанная фигура ходит по линии связки ({@link #LINE}), при шахе остальные фигуры ходят только на поля
+     * между королем и шахующей фигурой или на ее поле.
+     *
+     * @param moves куда складывать ходы; {@code null} - только посчитать
+     */
+    private int genLegal(MoveList moves) {
+        Color us = sideToMove, them = us == WHITE ? BLACK : WHITE;
+        long own = occupancy[us.code], enemy = occupancy[them.code], occupied = own | enemy;
+
+        Piece king = piece(W_KING, B_KING, us);
+        long kingBit = pieces[king.code];
+        int kingSq = Long.numberOfTrailingZeros(kingBit);
+
+        long theirDiagonal = pieces[piece(W_BISHOP, B_BISHOP, them).code] | pieces[piece(W_QUEEN, B_QUEEN, them).code];
+        long theirOrthogonal = pieces[piece(W_ROOK, B_ROOK, them).code] | pieces[piece(W_QUEEN, B_QUEEN, them).code];
+
+        long checkers = KNIGHT_ATTACKS[kingSq] & pieces[piece(W_KNIGHT, B_KNIGHT, them).code]
+                | bishopAttacks(kingSq, occupied) & theirDiagonal
+                | rookAttacks(kingSq, occupied) & theirOrthogonal;
+
+        int count = 0;
+
+        // король: поле не должно биться и при убранном с доски короле
+        long kingTargets = KING_ATTACKS[kingSq] & ~own;
+        long withoutKing = occupied ^ kingBit;
+        for (long t = kingTargets; t != 0; t &= t - 1) {
+            int to = Long.numberOfTrailingZeros(t);
+            if (!isAttacked(to, them, withoutKing)) {
+                count++;
+                if (moves != null) {
+                    Piece capture = squares[to];
+                    moves.add(capture == EMP
+                            ? Moves.pack(SQ120[kingSq], SQ120[to], king)
+                            : Moves.pack(SQ120[kingSq], SQ120[to], king, capture));
+                }
+            }
+        }
+
+        if (Long.bitCount(checkers) > 1) {
+            return count;
+        }
+        long allowed = ~own;
+        if (checkers != 0) {
+            int checker = Long.numberOfTrailingZeros(checkers);
+            allowed &= BETWEEN[kingSq][checker] | checkers;
+        }
+
+        // связанные фигуры: между королем и дальнобойщиком на пустой доске ровно одна фигура, и она наша
+        long pinned = 0;
+        long snipers = rookAttacks(kingSq, enemy) & theirOrthogonal | bishopAttacks(kingSq, enemy) & theirDiagonal;
+        for (; snipers != 0; snipers &= snipers - 1) {
+            long blockers = BETWEEN[kingSq][Long.numberOfTrailingZeros(snipers)] & occupied;
+            if (blockers != 0 && (blockers & blockers - 1) == 0 && (blockers & own) != 0) {
+                pinned |= blockers;
+            }
+        }
+
+        Piece bishop = piece(W_BISHOP, B_BISHOP, us);
+        for (long b = pieces[bishop.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            long targets = bishopAttacks(from, occupied) & allowed;
+            count += addLegal(moves, from, (pinned & 1L << from) != 0 ? targets & LINE[kingSq][from] : targets, bishop);
+        }
+        Piece rook = piece(W_ROOK, B_ROOK, us);
+        for (long b = pieces[rook.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            long targets = rookAttacks(from, occupied) & allowed;
+            count += addLegal(moves, from, (pinned & 1L << from) != 0 ? targets & LINE[kingSq][from] : targets, rook);
+        }
+        Piece queen = piece(W_QUEEN, B_QUEEN, us);
+        for (long b = pieces[queen.code]; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            long targets = (rookAttacks(from, occupied) | bishopAttacks(from, occupied)) & allowed;
+            count += addLegal(moves, from, (pinned & 1L << from) != 0 ? targets & LINE[kingSq][from] : targets, queen);
+        }
+        Piece knight = piece(W_KNIGHT, B_KNIGHT, us);
+        // связанный конь ходить не может
+        for (long b = pieces[knight.code] & ~pinned; b != 0; b &= b - 1) {
+            int from = Long.numberOfTrailingZeros(b);
+            count += addLegal(moves, from, KNIGHT_ATTACKS[from] & allowed, knight);
+        }
+        return count;
+    }
+
+    private int addLegal(MoveList moves, int from, long targets, Piece piece) {
+        if (moves != null) {
+            addMoves(moves, from, targets, piece);
+        }
+        return Long.bitCount(targets);
+    }
+
+    private boolean isAttacked(int sq, Color byColor, long occupied) {
+        Piece queen = piece(W_QUEEN, B_QUEEN, byColor);
+        return (KNIGHT_ATTACKS[sq] & pieces[piece(W_KNIGHT, B_KNIGHT, byColor).code]) != 0
+                || (KING_ATTACKS[sq] & pieces[piece(W_KING, B_KING, byColor).code]) != 0
+                || (bishopAttacks(sq, occupied) & (pieces[piece(W_BISHOP, B_BISHOP, byColor).code] | pieces[queen.code])) != 0
+                || (rookAttacks(sq, occupied) & (pieces[piece(W_ROOK, B_ROOK, byColor).code] | pieces[queen.code])) != 0;
+    }
+
+    public boolean isSquareAttacked(int square, Color byColor) {
+        return isAttacked(SQ64[square], byColor, occupancy[0] | occupancy[1]);
+    }
+
+    public boolean isCheck(Color kingColor) {
+        int kingSq = Long.numberOfTrailingZeros(pieces[piece(W_KING, B_KING, kingColor).code]);
+        return isAttacked(kingSq, kingColor == WHITE ? BLACK : WHITE, occupancy[0] | occupancy[1]);
+    }
+
+    public void makeMove(int move) {
+        int from120 = Moves.from(move), to120 = Moves.to(move);
+        int from = SQ64[from120], to = SQ64[to120];
+        Piece piece = Moves.piece(move), capture = Moves.capture(move);
+        long fromTo = 1L << from | 1L << to;
+
+        if (capture != EMP) {
+            pieces[capture.code] ^= 1L << to;
+            occupancy[capture.getColor().code] ^= 1L << to;
+            key ^= Zobrist.pieceSquare(capture, to120);
+        }
+        pieces[piece.code] ^= fromTo;
+        occupancy[piece.getColor().code] ^= fromTo;
+        squares[from] = EMP;
+        squares[to] = piece;
+        key ^= Zobrist.pieceSquare(piece, from120) ^ Zobrist.pieceSquare(piece, to120) ^ Zobrist.blackToMove();
+        sideToMove = sideToMove == WHITE ? BLACK : WHITE;
+    }
+
+    public void takeBack(int move) {
+        int from120 = Moves.from(move), to120 = Moves.to(move);
+        int from = SQ64[from120], to = SQ64[to120];
+        Piece piece = Moves.piece(move), capture = Moves.capture(move);
+        long fromTo = 1L << from | 1L << to;
+
+        pieces[piece.code] ^= fromTo;
+        occupancy[piece.getColor().code] ^= fromTo;
+        squares[from] = piece;
+        squares[to] = capture;
+        if (capture != EMP) {
+            pieces[capture.code] ^= 1L << to;
+            occupancy[capture.getColor().code] ^= 1L << to;
+            key ^= Zobrist.pieceSquare(capture, to120);
+        }
+        key ^= Zobrist.pieceSquare(piece, from120) ^ Zobrist.pieceSquare(piece, to120) ^ Zobrist.blackToMove();
+        sideToMove = sideToMove == WHITE ? BLACK : WHITE;
+    }
+
+    public Piece getPiece(int square) {
+        return squares[SQ64[square]];
+    }
+
+    public Color getSideToMove() {
+        return sideToMove;
+    }
+
+    public Color getOpponentColor() {
+        return sideToMove == WHITE ? BLACK : WHITE;
+    }
+
+    public long getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("\n");
+        for (int rank = 7; rank >= 0; rank--) {
+            for (int file = 0; file < 8; file++) {
+                sb.append(squares[rank << 3 | file]).append(" ");
+            }
+            if (rank > 0) {
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,8 +1,9 @@
 package ru.pflb.perft;
 
+import ru.pflb.perft.exception.FenParseException;
 import ru.pflb.perft.exception.NotImplementedException;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -10,189 +11,374 @@ import static ru.pflb.perft.Color.BLACK;
 import static ru.pflb.perft.Color.WHITE;
 import static ru.pflb.perft.Piece.*;
 import static ru.pflb.perft.Square.*;
-import static ru.pflb.perft.Value.val;
 
 /**
  * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
  */
-public class Board {
+public class Board implements ChessBoard {
+    /**
+     * Включает сверку инкрементального ключа с полным пересчетом после каждого хода и отката:
+     * {@code -Dperft.debugHash=true}. Поле статическое и финальное, поэтому в обычном режиме JIT вырезает проверку.
+     */
+    private static final boolean DEBUG_HASH = Boolean.getBoolean("perft.debugHash");
+
     // Для каждой фигуры на доске создадим массив, который хранит сведения о том, как ходит фигура.
     // Деление на белые и черные фигуры в данном случае отсутствует.
-    private static final byte[] KING_OFFSETS = {+11, +10, +9, +1, -1, -9, -10, -11};
-    private static final byte[] BISHOP_OFFSETS = {+11, +9, -9, -11};
-    private static final byte[] ROOK_OFFSETS = {+10, +1, -1, -10};
-    private static final byte[] KNIGHT_OFFSETS = {+21, +19, +12, +8, -8, -12, -19, -21};
+    static final byte[] KING_OFFSETS = {+11, +10, +9, +1, -1, -9, -10, -11};
+    static final byte[] KNIGHT_OFFSETS = {+21, +19, +12, +8, -8, -12, -19, -21};
+
+    static final byte[] BISHOP_OFFSETS = {+11, +9, -9, -11};
+    static final byte[] ROOK_OFFSETS = {+10, +1, -1, -10};
+
+    /*
+    Поля хода коня и короля, посчитанные при загрузке класса для каждого из 64 полей доски (индекс - поле
+    mailbox120): KNIGHT_TARGETS[s * 8 + i], i < KNIGHT_COUNT[s], для короля - так же в KING_TARGETS.
+    В таблицах только поля доски, поэтому прыжки идут по плоскому массиву без проверок выхода за край.
+    Лучи дальнобойщиков в таблицы не вынесены: чтение поля луча из таблицы на каждом шаге обходится дороже,
+    чем шаг по смещению до рамки.
+    */
+    private static final byte[] KNIGHT_TARGETS = new byte[120 * 8], KNIGHT_COUNT = new byte[120];
+    private static final byte[] KING_TARGETS = new byte[120 * 8], KING_COUNT = new byte[120];
+
+    /*
+    Байт поля доски: Piece.code в битах 0-3 и бит цвета. У пустого поля 0, у поля за доской OUT_SQUARE без бита
+    цвета. Поэтому (mailbox120[to] & битЦветаПротивника) != 0 одной проверкой отвечает, стоит ли на поле фигура
+    противника, а код фигуры для упаковки хода - mailbox120[to] & CODE_MASK, без обращения к Piece.
+    */
+    static final int WHITE_BIT = 0x10, BLACK_BIT = 0x20, OUT_SQUARE = 0x40, CODE_MASK = 0xF;
+
+    /**
+     * Байт поля по {@link Piece#code}.
+     */
+    static final byte[] SQUARE_BYTE = new byte[12];
+
+    private static final byte[] EMPTY_BOARD = new byte[120];
+
+    static {
+        for (int code = 1; code < 12; code++) {
+            SQUARE_BYTE[code] = (byte) (code | (code < 6 ? WHITE_BIT : BLACK_BIT));
+        }
+        for (int square = 0; square < 120; square++) {
+            if (!onBoard(square)) {
+                EMPTY_BOARD[square] = OUT_SQUARE;
+                continue;
+            }
+            for (int d = 0; d < 8; d++) {
+                if (onBoard(square + KING_OFFSETS[d])) {
+                    KING_TARGETS[square * 8 + KING_COUNT[square]++] = (byte) (square + KING_OFFSETS[d]);
+                }
+                if (onBoard(square + KNIGHT_OFFSETS[d])) {
+                    KNIGHT_TARGETS[square * 8 + KNIGHT_COUNT[square]++] = (byte) (square + KNIGHT_OFFSETS[d]);
+                }
+            }
+        }
+    }
+
+    private static boolean onBoard(int square) {
+        return square >= H1.value && square <= A8.value && square % 10 != 0 && square % 10 != 9;
+    }
+
+    // Больше десяти фигур одного вида быть не может: две своих и восемь превращенных пешек.
+    static final int MAX_PIECES = 10;
 
     /*
-    Для каждой фигуры на доске создадим массив, который будет хранить ее местоположение.
-    Так, например, массив для позиций короля будет одномерным и иметь размер 2, так как у нас всего два короля.
-    Для всех остальных фигур массив будет двумерным потому что бог его знает.
+    Для каждой фигуры на доске храним список полей, на которых она стоит: pieceSquares[Piece.code][i],
+    где i < pieceCount[Piece.code]. Обратный индекс pieceIndex[поле] - позиция фигуры с этого поля в ее списке,
+    поэтому ход и взятие обновляют списки за O(1), без поиска и сдвигов.
+    При взятии на место выбывшей фигуры встает последняя в списке, а индекс выбывшей кладется в стек undoIndex:
+    takeBack возвращает ее на прежнее место, и порядок фигур (а значит, и порядок генерации ходов)
+    восстанавливается в точности.
     */
-    private byte[] kingPos = {0,0};
-    private byte[][] rookPos = {
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0}
-    };
-    private byte[][] bishopPos = {
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0}
-    };
-    private byte[][] knightPos = {
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0, 0, 0, 0, 0}
-    };
-    private byte[][] queenPos = {
-            {0, 0, 0, 0, 0, 0, 0, 0, 0},
-            {0, 0, 0, 0, 0, 0, 0, 0, 0}
-    };
+    byte[][] pieceSquares = new byte[12][MAX_PIECES];
+    byte[] pieceCount = new byte[12];
+    private byte[] pieceIndex = new byte[120];
+    private byte[] undoIndex = new byte[12 * MAX_PIECES];
+    private int undoSize;
     // Решение о том, кто ходит будет приниматься на основе переменной sideToMove, которая будет равна
     // либо WHITE, либо BLACK.
     private Color sideToMove;
+    // Остальные поля FEN: рокировки (биты KQkq по порядку), поле взятия на проходе (0 - нет) и счетчики ходов.
+    private int castlingRights;
+    private byte enPassantSquare;
+    private int halfmoveClock;
+    private int fullmoveNumber = 1;
+    // Результат parseNumber.
+    private int number;
+    // Ключ Зобриста текущей позиции, обновляется в makeMove/takeBack.
+    private long key;
+    /*
+    Рабочие массивы genLegalMoves, у каждой доски свои. pinOffset - направление связки для поля связанной фигуры,
+    evasionTarget - поля, ход на которые снимает шах. Помеченные поля запоминаются в marked и сбрасываются
+    после генерации.
+    */
+    private final byte[] pinOffset = new byte[120];
+    private final boolean[] evasionTarget = new boolean[120];
+    private final byte[] marked = new byte[64];
+    private int markedCount;
     /*
     Доска представляет собой одномерный массив из клеток, т.е. вся доска как бы размотана на линии,
-    где EMP - означает незанятое поле доски, а OUT - поле за пределами доски.
-    Так как фигура сначала будет делать ход, а затем этот ход будет проверяться на валидность,
-    то поле OUT поможет определить, что ход невалидный, так как фигура вышла за пределы доски.
+    где 0 - незанятое поле доски, а OUT_SQUARE - поле за пределами доски. Дальнобойщик идет по лучу, пока поле
+    пустое, рамка его останавливает и, не имея бита цвета, не принимается за взятие.
     */
-
-    private Piece[] mailbox120 = {
-            OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, // 0-9
-            OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, // 10-19
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 20-29
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 30-39
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 40-49
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 50-59
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 60-69
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 70-79
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 80-89
-            OUT, EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP, OUT, // 90-99
-            OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, // 100-109
-            OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT, OUT  // 110-119
-    };
+    byte[] mailbox120 = EMPTY_BOARD.clone();
 
     public Board(String fen) {
-        /*
-        Доска инициализируется с помощью FEN раскладки, в которой в качестве разделителя используется
-        пробел.
-        Пробел разделяет четыре параметра:
-        1. Расположение фигур на доске;
-        2. То, чей ход;
-        3. Чо-то еще;
-        4. И чо-то еще.
-         */
-        String[] fenParts = fen.split("\\s");
-        /*
-        Используя второй параметр инициализации доски установим чей ход.
-         */
-        sideToMove = fenParts[1].startsWith("w") ? WHITE : BLACK;
-        /*
-        Пробегаемся по FEN-нотации и расставляем по позициям все фигуры.
-         */
-        for (byte square = 98, fenIndex = 0; fenIndex < fenParts[0].length(); square--, fenIndex++) {
-            char c = fenParts[0].charAt(fenIndex);
-            switch (c) {
-                case 'K':
-                    mailbox120[square] = W_KING;
-                    kingPos[WHITE.code] = square;
-                    break;
-                case 'R':
-                    mailbox120[square] = W_ROOK;
-                    for (int i = 0; i < rookPos[WHITE.code].length; i++) {
-                        if (rookPos[WHITE.code][i] == 0) {
-                            rookPos[WHITE.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'B':
-                    mailbox120[square] = W_BISHOP;
-                    for (int i = 0; i < bishopPos[WHITE.code].length; i++) {
-                        if (bishopPos[WHITE.code][i] == 0) {
-                            bishopPos[WHITE.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'Q':
-                    mailbox120[square] = W_QUEEN;
-                    for (int i = 0; i < queenPos[WHITE.code].length; i++) {
-                        if (queenPos[WHITE.code][i] == 0) {
-                            queenPos[WHITE.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'N':
-                    mailbox120[square] = W_KNIGHT;
-                    for (int i = 0; i < knightPos[WHITE.code].length; i++) {
-                        if (knightPos[WHITE.code][i] == 0) {
-                            knightPos[WHITE.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'k':
-                    mailbox120[square] = B_KING;
-                    kingPos[BLACK.code] = square;
-                    break;
-                case 'r':
-                    mailbox120[square] = B_ROOK;
-                    for (int i = 0; i < rookPos[BLACK.code].length; i++) {
-                        if (rookPos[BLACK.code][i] == 0) {
-                            rookPos[BLACK.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'b':
-                    mailbox120[square] = B_BISHOP;
-                    for (int i = 0; i < bishopPos[BLACK.code].length; i++) {
-                        if (bishopPos[BLACK.code][i] == 0) {
-                            bishopPos[BLACK.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'q':
-                    mailbox120[square] = B_QUEEN;
-                    for (int i = 0; i < queenPos[BLACK.code].length; i++) {
-                        if (queenPos[BLACK.code][i] == 0) {
-                            queenPos[BLACK.code][i] = square;
-                            break;
-                        }
-                    }
-                    break;
-                case 'n':
-                    mailbox120[square] = B_KNIGHT;
-                    for (int i = 0; i < knightPos[BLACK.code].length; i++) {
-                        if (knightPos[BLACK.code][i] == 0) {
-                            knightPos[BLACK.code][i] = square;
-                            break;
-                        }
+        setFen(fen);
+    }
+
+    /**
+     * Пустая доска для {@link BoardPool}: до {@link #setFen(CharSequence)} ею пользоваться нельзя.
+     */
+    Board() {
+    }
+
+    /**
+     * Разбирает FEN в эту же доску, не создавая объектов, поэтому одну доску можно переиспользовать
+     * для множества позиций. Поля FEN разделяются пробелами:
+     * <ol>
+     * <li>расстановка фигур, от восьмой горизонтали к первой и от вертикали a к h;</li>
+     * <li>очередь хода, {@code w} или {@code b};</li>
+     * <li>права на рокировку, {@code -} или подмножество {@code KQkq};</li>
+     * <li>поле взятия на проходе, {@code -} или поле на третьей или шестой горизонтали;</li>
+     * <li>счетчик полуходов для правила 50 ходов;</li>
+     * <li>номер хода.</li>
+     * </ol>
+     * Обязательны только первые два поля. Рокировки и пешек в генераторе нет, поэтому права на рокировку
+     * и поле взятия на проходе только проверяются и сохраняются, на ходы и ключ Зобриста они не влияют.
+     *
+     * @return эта же доска
+     * @throws FenParseException с позицией ошибочного символа, доска после ошибки не пригодна для игры
+     */
+    public Board setFen(CharSequence fen) {
+        clear();
+        int length = fen.length();
+        int pos = 0;
+        int rank = 7, file = 0;
+        for (; pos < length && fen.charAt(pos) != ' '; pos++) {
+            char c = fen.charAt(pos);
+            if (c == '/') {
+                if (file != 8 || rank == 0) {
+                    throw new FenParseException("Горизонталь " + (rank + 1) + " не из 8 полей", fen, pos);
+                }
+                rank--;
+                file = 0;
+            } else if (c >= '1' && c <= '8') {
+                file += c - '0';
+                if (file > 8) {
+                    throw new FenParseException("Горизонталь " + (rank + 1) + " длиннее 8 полей", fen, pos);
+                }
+            } else {
+                Piece piece = fenPiece(c);
+                if (piece == null) {
+                    throw new FenParseException("Недопустимый символ '" + c + "'", fen, pos);
+                }
+                if (file == 8) {
+                    throw new FenParseException("Горизонталь " + (rank + 1) + " длиннее 8 полей", fen, pos);
+                }
+                if (pieceCount[piece.code] == (piece == W_KING || piece == B_KING ? 1 : MAX_PIECES)) {
+                    throw new FenParseException("Слишком много фигур " + piece, fen, pos);
+                }
+                addPiece(piece, A8.value - (7 - rank) * 10 - file);
+                file++;
+            }
+        }
+        if (rank != 0 || file != 8) {
+            throw new FenParseException("Расстановка должна описывать 8 горизонталей по 8 полей", fen, pos);
+        }
+        if (pieceCount[W_KING.code] != 1 || pieceCount[B_KING.code] != 1) {
+            throw new FenParseException("На доске должно быть по одному королю каждого цвета", fen, 0);
+        }
+
+        pos = skipSpaces(fen, pos);
+        if (pos == length) {
+            throw new FenParseException("Нет очереди хода", fen, pos);
+        }
+        char side = fen.charAt(pos);
+        if (side != 'w' && side != 'b' || !isFieldEnd(fen, pos + 1)) {
+            throw new FenParseException("Очередь хода должна быть w или b", fen, pos);
+        }
+        sideToMove = side == 'w' ? WHITE : BLACK;
+        // иначе первым же ходом берется король, и позиция падает не при разборе, а где-то в глубине perft
+        if (isSquareAttacked(kingSquare(getOpponentColor()), sideToMove)) {
+            throw new FenParseException("Король стороны, которая не ходит, под шахом", fen, pos);
+        }
+
+        pos = skipSpaces(fen, pos + 1);
+        if (pos < length) {
+            if (fen.charAt(pos) == '-') {
+                pos++;
+            } else {
+                for (; !isFieldEnd(fen, pos); pos++) {
+                    int right = "KQkq".indexOf(fen.charAt(pos));
+                    if (right < 0 || (castlingRights & 1 << right) != 0) {
+                        throw new FenParseException("Неверные права на рокировку", fen, pos);
                     }
-                    break;
-                case '/':
-                    square -= 1;
-                    break;
-                case '1':
-                case '2':
-                case '3':
-                case '4':
-                case '5':
-                case '6':
-                case '7':
-                case '8':
-                    /*
-                    Пофиксил.
-                     */
-                    square -= c - '1';
-//                    square -= Character.getNumericValue(c);
-                    break;
-                default:
-                    throw new IllegalStateException("Недопустимый символ - " + c);
+                    castlingRights |= 1 << right;
+                }
+            }
+            if (!isFieldEnd(fen, pos)) {
+                throw new FenParseException("Неверные права на рокировку", fen, pos);
+            }
+        }
+
+        pos = skipSpaces(fen, pos);
+        if (pos < length) {
+            if (fen.charAt(pos) == '-') {
+                pos++;
+            } else {
+                char epFile = fen.charAt(pos);
+                char epRank = pos + 1 < length ? fen.charAt(pos + 1) : ' ';
+                if (epFile < 'a' || epFile > 'h' || epRank != (sideToMove == WHITE ? '6' : '3')) {
+                    throw new FenParseException("Неверное поле взятия на проходе", fen, pos);
+                }
+                enPassantSquare = (byte) (A1.value + (epRank - '1') * 10 - (epFile - 'a'));
+                pos += 2;
+            }
+            if (!isFieldEnd(fen, pos)) {
+                throw new FenParseException("Неверное поле взятия на проходе", fen, pos);
             }
         }
+
+        pos = skipSpaces(fen, pos);
+        if (pos < length) {
+            int end = parseNumber(fen, pos);
+            halfmoveClock = number;
+            pos = skipSpaces(fen, end);
+            if (pos < length) {
+                end = parseNumber(fen, pos);
+                if (number == 0) {
+                    throw new FenParseException("Номер хода начинается с 1", fen, pos);
+                }
+                fullmoveNumber = number;
+                pos = skipSpaces(fen, end);
+                if (pos < length) {
+                    throw new FenParseException("Лишние символы после FEN", fen, pos);
+                }
+            }
+        }
+        resetKey();
+        return this;
+    }
+
+    void clear() {
+        System.arraycopy(EMPTY_BOARD, 0, mailbox120, 0, mailbox120.length);
+        Arrays.fill(pieceCount, (byte) 0);
+        undoSize = 0;
+        castlingRights = 0;
+        enPassantSquare = 0;
+        halfmoveClock = 0;
+        fullmoveNumber = 1;
+    }
+
+    /**
+     * Завершает расстановку, начатую {@link #clear()} и {@link #addPiece(Piece, int)}, минуя FEN.
+     */
+    void setup(Color sideToMove, int castlingRights, int enPassantSquare) {
+        if (pieceCount[W_KING.code] != 1 || pieceCount[B_KING.code] != 1) {
+            throw new IllegalStateException("На доске должно быть по одному королю каждого цвета" + this);
+        }
+        this.sideToMove = sideToMove;
+        this.castlingRights = castlingRights;
+        this.enPassantSquare = (byte) enPassantSquare;
+        resetKey();
+    }
+
+    // Буква FEN по Piece.code: Piece.toString() у коня дает K, как у короля.
+    private static final String FEN_CHARS = ".KBRQN.kbrqn";
+
+    private static Piece fenPiece(char c) {
+        switch (c) {
+            case 'K':
+                return W_KING;
+            case 'R':
+                return W_ROOK;
+            case 'B':
+                return W_BISHOP;
+            case 'Q':
+                return W_QUEEN;
+            case 'N':
+                return W_KNIGHT;
+            case 'k':
+                return B_KING;
+            case 'r':
+                return B_ROOK;
+            case 'b':
+                return B_BISHOP;
+            case 'q':
+                return B_QUEEN;
+            case 'n':
+                return B_KNIGHT;
+            default:
+                return null;
+        }
+    }
+
+    private static int skipSpaces(CharSequence fen, int pos) {
+        while (pos < fen.length() && fen.charAt(pos) == ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isFieldEnd(CharSequence fen, int pos) {
+        return pos >= fen.length() || fen.charAt(pos) == ' ';
+    }
+
+    /**
+     * Разбирает неотрицательное число в {@link #number}, чтобы не возвращать пару значений объектом.
+     *
+     * @return позиция после числа
+     */
+    private int parseNumber(CharSequence fen, int pos) {
+        number = 0;
+        int start = pos;
+        for (; pos < fen.length() && fen.charAt(pos) >= '0' && fen.charAt(pos) <= '9'; pos++) {
+            number = number * 10 + fen.charAt(pos) - '0';
+            if (number > 100_000) {
+                throw new FenParseException("Слишком большое число", fen, start);
+            }
+        }
+        if (pos == start || !isFieldEnd(fen, pos)) {
+            throw new FenParseException("Ожидалось число", fen, pos);
+        }
+        return pos;
+    }
+    /**
+     * Создает независимую копию доски: все массивы копируются, поэтому копию можно менять в другом потоке,
+     * не затрагивая оригинал.
+     */
+    public Board(Board other) {
+        this.sideToMove = other.sideToMove;
+        this.castlingRights = other.castlingRights;
+        this.enPassantSquare = other.enPassantSquare;
+        this.halfmoveClock = other.halfmoveClock;
+        this.fullmoveNumber = other.fullmoveNumber;
+        this.key = other.key;
+        this.mailbox120 = other.mailbox120.clone();
+        this.pieceSquares = new byte[other.pieceSquares.length][];
+        for (int i = 0; i < pieceSquares.length; i++) {
+            this.pieceSquares[i] = other.pieceSquares[i].clone();
+        }
+        this.pieceCount = other.pieceCount.clone();
+        this.pieceIndex = other.pieceIndex.clone();
+        this.undoIndex = other.undoIndex.clone();
+        this.undoSize = other.undoSize;
+    }
+
+    void addPiece(Piece piece, int square) {
+        mailbox120[square] = SQUARE_BYTE[piece.code];
+        pieceIndex[square] = pieceCount[piece.code];
+        pieceSquares[piece.code][pieceCount[piece.code]++] = (byte) square;
+    }
+
+    byte kingSquare(Color color) {
+        return pieceSquares[(color == WHITE ? W_KING : B_KING).code][0];
+    }
+
+    public Board copy() {
+        return new Board(this);
     }
+
     /*
     Данный метод генерирует ходы для КОРОЛЯ. На выходе получаем лист из всех ВАЛИДНЫХ ходов КОРОЛЯ.
     Подробнее: мы проходим по КАЖДОМУ возможному ходу короля, совершаем его и смотрим на результат.
@@ -202,404 +388,622 @@ public class Board {
     Либо мы попадаем на занятую клетку. Но вопрос вопрос: кем занятую? Если нашей фигурой, тогда просто
     пропускаем данный ход как инвалидный, так как мы не можем встать на место нашей фигуры.
     Однако если мы попадем на вражескую фигуру, то ход валидный и мы опять же записываем его в коллекцию.
+    Ходы записываются в MoveList в упаковке Moves, поэтому генератор не создает объектов.
      */
-    public List<Move> genKingMoves() {
-        List<Move> moves = new ArrayList<>();
-        for (byte offset : KING_OFFSETS) {
-            byte from = kingPos[sideToMove.code];
-            byte to = (byte) (from + offset);
-            Piece toPiece = mailbox120[to];
-            if ((EMP).equals(toPiece)) {
-                moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_KING : B_KING));
-            } else if ((OUT).equals(toPiece)) {
-                continue;
-            } else if (toPiece.getColor() != getOpponentColor()) {
-                continue;
-            } else {
+    public void genKingMoves(MoveList moves) {
+        int king = sideToMove == WHITE ? W_KING.code : B_KING.code;
+        int opponentBit = sideToMove == WHITE ? BLACK_BIT : WHITE_BIT;
+        int from = kingSquare(sideToMove);
+        for (int i = from * 8, end = i + KING_COUNT[from]; i < end; i++) {
+            int to = KING_TARGETS[i];
+            int target = mailbox120[to];
+            if (target == 0) {
+                moves.add(Moves.pack(from, to, king, 0));
+            } else if ((target & opponentBit) != 0) {
                 // взятие
-                moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_KING : B_KING, mailbox120[to]));
+                moves.add(Moves.pack(from, to, king, target & CODE_MASK));
             }
         }
-        return moves;
     }
 
-    public List<Move> genBishopMoves() {
-        List<Move> moves = new ArrayList<>();
-
-        // проходим по всем слонам цвета ходящей стороны
-        for (int i = 0; i < bishopPos[sideToMove.code].length && bishopPos[sideToMove.code][i] != 0; i++) {
-            byte from = bishopPos[sideToMove.code][i];
-            // для каждого слона проходим по всем направлениям
-            for (byte offset : BISHOP_OFFSETS) {
-
-                byte to = (byte) (from + offset);
-                for (;; to+= offset) {
-                    if (mailbox120[to] == EMP) {
-                        moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_BISHOP : B_BISHOP));
-                    } else if (mailbox120[to] == OUT) {
-                        break;
-                    } else if (mailbox120[to].getColor() == getOpponentColor()) {
-                        moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_BISHOP : B_BISHOP, mailbox120[to]));
-                    } else {
-                        continue;
-                    }
+    public void genBishopMoves(MoveList moves) {
+        genSliderMoves(moves, BISHOP_OFFSETS, sideToMove == WHITE ? W_BISHOP : B_BISHOP);
+    }
+
+    public void genRookMoves(MoveList moves) {
+        genSliderMoves(moves, ROOK_OFFSETS, sideToMove == WHITE ? W_ROOK : B_ROOK);
+    }
+
+    public void genQueenMoves(MoveList moves) {
+        genSliderMoves(moves, KING_OFFSETS, sideToMove == WHITE ? W_QUEEN : B_QUEEN);
+    }
+
+    private void genSliderMoves(MoveList moves, byte[] offsets, Piece piece) {
+        int opponentBit = sideToMove == WHITE ? BLACK_BIT : WHITE_BIT;
+        int code = piece.code;
+        byte[] squares = pieceSquares[code];
+        // проходим по всем фигурам данного типа цвета ходящей стороны
+        for (int p = 0, n = pieceCount[code]; p < n; p++) {
+            int from = squares[p];
+            // для каждой фигуры проходим по всем направлениям
+            for (byte offset : offsets) {
+                int to = from + offset;
+                int target;
+                for (; (target = mailbox120[to]) == 0; to += offset) {
+                    // генерируем все ходы по пустым клеткам
+                    moves.add(Moves.pack(from, to, code, 0));
+                }
+                // генерируем взятие, если наткнулись на чужую фигуру; у рамки OUT_SQUARE нет бита цвета
+                if ((target & opponentBit) != 0) {
+                    moves.add(Moves.pack(from, to, code, target & CODE_MASK));
                 }
-//                for (; mailbox120[to] == EMP; to += offset) {
-//                    // генерируем все ходы по пустым клеткам
-//                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_BISHOP : B_BISHOP));
-//                }
-//                // генерируем взятие, если наткнулись на чужую фигуру
-//                if (mailbox120[to].getColor() == getOpponentColor()) {
-//                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_BISHOP : B_BISHOP, mailbox120[to]));
-//                }
             }
         }
-
-        return moves;
     }
 
-    public List<Move> genRookMoves() {
-        List<Move> moves = new ArrayList<>();
-
-        // проходим по всем слонам цвета ходящей стороны
-        for (int i = 0; i < rookPos[sideToMove.code].length && rookPos[sideToMove.code][i] != 0; i++) {
-            byte from = rookPos[sideToMove.code][i];
-            // для каждого слона проходим по всем направлениям
-            for (byte offset : ROOK_OFFSETS) {
-
-                byte to = (byte) (from + offset);
-                for (;; to += offset) {
-                    if (mailbox120[to] == EMP) {
-                        moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_ROOK : B_ROOK));
-                    } else if (mailbox120[to] == OUT) {
-                        break;
-                    } else if (mailbox120[to].getColor() == getOpponentColor()) {
-                        moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_ROOK : B_ROOK, mailbox120[to]));
-                    } else {
-                        continue;
-                    }
+    public void genKnightMoves(MoveList moves) {
+        int knight = sideToMove == WHITE ? W_KNIGHT.code : B_KNIGHT.code;
+        int opponentBit = sideToMove == WHITE ? BLACK_BIT : WHITE_BIT;
+        byte[] squares = pieceSquares[knight];
+        // проходим по всем коням цвета ходящей стороны
+        for (int p = 0, n = pieceCount[knight]; p < n; p++) {
+            int from = squares[p];
+
+            for (int i = from * 8, end = i + KNIGHT_COUNT[from]; i < end; i++) {
+                int to = KNIGHT_TARGETS[i];
+                int target = mailbox120[to];
+                if (target == 0) {
+                    moves.add(Moves.pack(from, to, knight, 0));
+                } else if ((target & opponentBit) != 0) {
+                    // взятие
+                    moves.add(Moves.pack(from, to, knight, target & CODE_MASK));
                 }
-//                for (; mailbox120[to] == EMP ; to += offset) {
-//                    // генерируем все ходы по пустым клеткам
-//                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_ROOK : B_ROOK));
-//                }
-//                // генерируем взятие, если наткнулись на чужую фигуру
-//                if (mailbox120[to].getColor() == getOpponentColor()) {
-//                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_ROOK : B_ROOK, mailbox120[to]));
-//                }
             }
         }
+    }
 
-        return moves;
+    /**
+     * Очищает список и заполняет его всеми псевдолегальными ходами стороны, чей ход.
+     */
+    public void genAllMoves(MoveList moves) {
+        moves.clear();
+        genKingMoves(moves);
+        genBishopMoves(moves);
+        genRookMoves(moves);
+        genQueenMoves(moves);
+        genKnightMoves(moves);
+        if (PerftStats.ENABLED) {
+            PerftStats.countMoves(moves);
+        }
     }
 
-    public List<Move> genQueenMoves() {
-        List<Move> moves = new ArrayList<>();
+    /**
+     * Заполняет список только легальными ходами стороны, чей ход, без пробных makeMove/takeBack.
+     * <p>
+     * Один раз за узел от короля ищутся шахующие фигуры и связки: если на луче от короля первой стоит своя фигура,
+     * а за ней вражеский дальнобойщик того же направления, своя фигура связана и ходит только вдоль этого луча.
+     * При шахе от одной фигуры остальные фигуры могут только взять ее или перекрыть линию, при двойном шахе
+     * ходит только король. Поля для короля проверяются {@link #isSquareAttacked} с убранным с доски королем,
+     * чтобы он не прятался от дальнобойщика "в собственной тени".
+     */
+    public void genLegalMoves(MoveList moves) {
+        moves.clear();
+        genLegal(moves);
+    }
 
-        // проходим по всем ферзям цвета ходящей стороны
-        for (int i = 0; i < queenPos[sideToMove.code].length && queenPos[sideToMove.code][i] != 0; i++) {
-            byte from = queenPos[sideToMove.code][i];
-            // для каждого ферзя проходим по всем направлениям
-            for (byte offset : KING_OFFSETS) {
+    /**
+     * Считает легальные ходы тем же генератором, что и {@link #genLegalMoves(MoveList)}, но не упаковывает
+     * и не записывает их: для последнего полухода perft нужно только их число.
+     */
+    public int countLegalMoves() {
+        return genLegal(null);
+    }
 
-                byte to = (byte) (from + offset);
-                for (; mailbox120[to] == EMP ; to += offset) {
-                    // генерируем все ходы по пустым клеткам
-                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_QUEEN : B_QUEEN));
-                }
-                // генерируем взятие, если наткнулись на чужую фигуру
-                if (mailbox120[to].getColor() == getOpponentColor()) {
-                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_QUEEN : B_QUEEN, mailbox120[to]));
+    /**
+     * @param moves куда складывать ходы; {@code null} - только посчитать
+     * @return число легальных ходов
+     */
+    private int genLegal(MoveList moves) {
+        int count = 0;
+        boolean white = sideToMove == WHITE;
+        // код фигуры противника - код белой фигуры того же вида плюс opponentBase
+        int opponentBase = white ? 6 : 0;
+        int opponentBit = white ? BLACK_BIT : WHITE_BIT;
+        int king = kingSquare(sideToMove);
+
+        int checkers = findChecksAndPins(king, opponentBase, opponentBit ^ (WHITE_BIT | BLACK_BIT));
+
+        // король
+        int kingByte = mailbox120[king];
+        int kingCode = kingByte & CODE_MASK;
+        mailbox120[king] = 0;
+        for (int i = king * 8, end = i + KING_COUNT[king]; i < end; i++) {
+            int to = KING_TARGETS[i];
+            int target = mailbox120[to];
+            if ((target == 0 || (target & opponentBit) != 0) && !isAttacked(to, opponentBase)) {
+                count++;
+                if (moves != null) {
+                    moves.add(Moves.pack(king, to, kingCode, target & CODE_MASK));
                 }
             }
         }
+        mailbox120[king] = (byte) kingByte;
+
+        if (checkers < 2) {
+            boolean evasion = checkers == 1;
+            count += genLegalSliderMoves(moves, BISHOP_OFFSETS, white ? W_BISHOP : B_BISHOP, opponentBit, evasion);
+            count += genLegalSliderMoves(moves, ROOK_OFFSETS, white ? W_ROOK : B_ROOK, opponentBit, evasion);
+            count += genLegalSliderMoves(moves, KING_OFFSETS, white ? W_QUEEN : B_QUEEN, opponentBit, evasion);
+            count += genLegalKnightMoves(moves, white ? W_KNIGHT : B_KNIGHT, opponentBit, evasion);
+        }
+
+        // снимаем пометки связок и полей для ухода от шаха, чтобы не чистить массивы целиком
+        for (int i = 0; i < markedCount; i++) {
+            pinOffset[marked[i]] = 0;
+            evasionTarget[marked[i]] = false;
+        }
+        markedCount = 0;
+        return count;
+    }
+
+    /**
+     * Помечает связанные фигуры в {@link #pinOffset} и поля, закрывающие шах, в {@link #evasionTarget}.
+     *
+     * @param opponentBase 0, если противник белые, 6 - если черные: код фигуры противника - код белой плюс он
+     * @param ownBit       бит цвета своих фигур
+     * @return число шахующих фигур
+     */
+    private int findChecksAndPins(int king, int opponentBase, int ownBit) {
+        int knight = SQUARE_BYTE[W_KNIGHT.code + opponentBase], bishop = SQUARE_BYTE[W_BISHOP.code + opponentBase],
+                rook = SQUARE_BYTE[W_ROOK.code + opponentBase], queen = SQUARE_BYTE[W_QUEEN.code + opponentBase];
+        int checkers = 0;
+
+        for (int i = king * 8, end = i + KNIGHT_COUNT[king]; i < end; i++) {
+            int square = KNIGHT_TARGETS[i];
+            if (mailbox120[square] == knight) {
+                checkers++;
+                mark(square);
+                evasionTarget[square] = true;
+            }
+        }
 
-        return moves;
+        for (byte offset : BISHOP_OFFSETS) {
+            checkers += findCheckOrPin(king, offset, bishop, queen, ownBit);
+        }
+        for (byte offset : ROOK_OFFSETS) {
+            checkers += findCheckOrPin(king, offset, rook, queen, ownBit);
+        }
+        return checkers;
     }
 
-    public List<Move> genKnightMoves() {
-        List<Move> moves = new ArrayList<>();
+    /**
+     * Идет по лучу от короля: если первой стоит вражеская фигура {@code slider} или ферзь - это шах,
+     * если своя фигура, а за ней такой же дальнобойщик - своя фигура связана.
+     *
+     * @return 1, если луч дает шах, иначе 0
+     */
+    private int findCheckOrPin(int king, byte offset, int slider, int queen, int ownBit) {
+        int to = king + offset;
+        while (mailbox120[to] == 0) {
+            to += offset;
+        }
+        int piece = mailbox120[to];
+        if (piece == slider || piece == queen) {
+            // уйти от шаха можно взятием или перекрытием любого поля луча
+            for (int s = king + offset; s != to + offset; s += offset) {
+                mark(s);
+                evasionTarget[s] = true;
+            }
+            return 1;
+        }
+        if ((piece & ownBit) != 0) {
+            int behind = to + offset;
+            while (mailbox120[behind] == 0) {
+                behind += offset;
+            }
+            if (mailbox120[behind] == slider || mailbox120[behind] == queen) {
+                mark(to);
+                pinOffset[to] = offset;
+            }
+        }
+        return 0;
+    }
 
-        // проходим по всем коням цвета ходящей стороны
-        for (int i = 0; i < knightPos[sideToMove.code].length && knightPos[sideToMove.code][i] != 0; i++) {
-            byte from = knightPos[sideToMove.code][i];
-
-            for (byte offset : KNIGHT_OFFSETS) {
-                byte to = (byte) (from + offset);
-                Piece toPiece = mailbox120[to];
-                if ((EMP).equals(toPiece)) {
-                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_KNIGHT : B_KNIGHT));
-                } else if ((OUT).equals(toPiece)) {
+    private void mark(int square) {
+        marked[markedCount++] = (byte) square;
+    }
+
+    private int genLegalSliderMoves(MoveList moves, byte[] offsets, Piece piece, int opponentBit, boolean evasion) {
+        int count = 0;
+        int code = piece.code;
+        byte[] squares = pieceSquares[code];
+        for (int p = 0, n = pieceCount[code]; p < n; p++) {
+            int from = squares[p];
+            byte pin = pinOffset[from];
+            for (byte offset : offsets) {
+                // связанная фигура ходит только вдоль линии связки
+                if (pin != 0 && offset != pin && offset != -pin) {
                     continue;
-                } else if (toPiece.getColor() != getOpponentColor()) {
+                }
+                int to = from + offset;
+                if (moves == null && !evasion) {
+                    // только считаем: длина пустой части луча и, возможно, взятие
+                    for (; mailbox120[to] == 0; to += offset) {
+                        count++;
+                    }
+                    if ((mailbox120[to] & opponentBit) != 0) {
+                        count++;
+                    }
                     continue;
-                } else {
-                    // взятие
-                    moves.add(new Move(new Square(from), new Square(to), sideToMove == WHITE ? W_KNIGHT : B_KNIGHT, mailbox120[to]));
+                }
+                for (; mailbox120[to] == 0; to += offset) {
+                    if (!evasion || evasionTarget[to]) {
+                        count++;
+                        if (moves != null) {
+                            moves.add(Moves.pack(from, to, code, 0));
+                        }
+                    }
+                }
+                if ((mailbox120[to] & opponentBit) != 0 && (!evasion || evasionTarget[to])) {
+                    count++;
+                    if (moves != null) {
+                        moves.add(Moves.pack(from, to, code, mailbox120[to] & CODE_MASK));
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int genLegalKnightMoves(MoveList moves, Piece piece, int opponentBit, boolean evasion) {
+        int count = 0;
+        int knight = piece.code;
+        byte[] squares = pieceSquares[knight];
+        for (int p = 0, n = pieceCount[knight]; p < n; p++) {
+            int from = squares[p];
+            // связанный конь не может остаться на линии связки
+            if (pinOffset[from] != 0) {
+                continue;
+            }
+            for (int i = from * 8, end = i + KNIGHT_COUNT[from]; i < end; i++) {
+                int to = KNIGHT_TARGETS[i];
+                if (evasion && !evasionTarget[to]) {
+                    continue;
+                }
+                int target = mailbox120[to];
+                if (target == 0 || (target & opponentBit) != 0) {
+                    count++;
+                    if (moves != null) {
+                        moves.add(Moves.pack(from, to, knight, target & CODE_MASK));
+                    }
                 }
             }
         }
-        return moves;
+        return count;
+    }
+
+    /*
+    Объектные варианты генераторов оставлены для обратной совместимости, на каждый ход создается Move.
+     */
+
+    public List<Move> genKingMoves() {
+        MoveList moves = new MoveList();
+        genKingMoves(moves);
+        return moves.toMoves();
+    }
+
+    public List<Move> genBishopMoves() {
+        MoveList moves = new MoveList();
+        genBishopMoves(moves);
+        return moves.toMoves();
+    }
+
+    public List<Move> genRookMoves() {
+        MoveList moves = new MoveList();
+        genRookMoves(moves);
+        return moves.toMoves();
+    }
+
+    public List<Move> genQueenMoves() {
+        MoveList moves = new MoveList();
+        genQueenMoves(moves);
+        return moves.toMoves();
+    }
+
+    public List<Move> genKnightMoves() {
+        MoveList moves = new MoveList();
+        genKnightMoves(moves);
+        return moves.toMoves();
     }
 
     public List<Move> genAllMoves() {
-        List<Move> moves = new ArrayList<>();
-        moves.addAll(genKingMoves());
-        moves.addAll(genBishopMoves());
-        moves.addAll(genRookMoves());
-        moves.addAll(genQueenMoves());
-        moves.addAll(genKnightMoves());
-        return moves;
+        MoveList moves = new MoveList();
+        genAllMoves(moves);
+        return moves.toMoves();
     }
 
     /**
-     * @param kingColor цвет короля, которому детектируется шах
+     * Проверяет, бьет ли сторона {@code byColor} поле {@code square}. Вместо генерации всех ходов противника
+     * смотрим от самого поля наружу: есть ли конь на расстоянии хода коня, король рядом, а на лучах
+     * слона и ладьи - первая встреченная фигура нужного типа или ферзь.
+     *
+     * @param square индекс поля в mailbox120
      */
-    public boolean isCheck(Color kingColor) {
-        List<Move> moves = genAllMoves();
-        for (Move move : moves)
-            if (move.isCapture() && (move.capture.get() == (kingColor == WHITE ? W_KING : B_KING))) {
-                this.sideToMove = this.sideToMove == WHITE ? BLACK : WHITE;
-                return true;
-            }
-        return false;
+    public boolean isSquareAttacked(int square, Color byColor) {
+        return isAttacked(square, byColor == WHITE ? 0 : 6);
     }
 
-    private void makeNonKingMove(Move move, byte[][] piecePos, Color color) {
-        for (int i = 0; i < piecePos[color.code].length; i++) {
-            if (piecePos[color.code][i] == val(move.from)) {
-                piecePos[color.code][i] = val(move.to);
-                break;
+    /**
+     * @param base 0, если бьют белые, 6 - если черные: код фигуры - код белой фигуры того же вида плюс base
+     */
+    private boolean isAttacked(int square, int base) {
+        int knight = SQUARE_BYTE[W_KNIGHT.code + base], king = SQUARE_BYTE[W_KING.code + base],
+                bishop = SQUARE_BYTE[W_BISHOP.code + base], rook = SQUARE_BYTE[W_ROOK.code + base],
+                queen = SQUARE_BYTE[W_QUEEN.code + base];
+
+        for (int i = square * 8, end = i + KNIGHT_COUNT[square]; i < end; i++) {
+            if (mailbox120[KNIGHT_TARGETS[i]] == knight) {
+                return true;
             }
         }
-    }
-
-    private void makeCapture(Move move, byte[][] piecePos, Color color) {
-        for (int i = 0; i < piecePos[color.code].length; i++) {
-            if (piecePos[color.code][i] == val(move.to)) {
-//                piecePos[color.code][i] = 0;
-                // сдвигаем все остальные значения на единицу, заполняя выбывшую фигуру, пока не встретим 0
-                // таким образом массив будет всегда содержать нулевые значения в конце
-                for (int j = i + 1; j < piecePos[color.code].length && piecePos[color.code][j] != 0; j++) {
-                    piecePos[color.code][j - 1] = piecePos[color.code][j];
-                }
-                break;
+        for (int i = square * 8, end = i + KING_COUNT[square]; i < end; i++) {
+            if (mailbox120[KING_TARGETS[i]] == king) {
+                return true;
             }
         }
-    }
-
-    private void takeBackCapture(Move move, byte[][] piecePos, Color color) {
-        for (int i = 0; i < piecePos[color.code].length; i++) {
-            if (piecePos[color.code][i] == 0) {
-                // выставляем вернувшуюся фигуру в первое ненулевое окно
-                piecePos[color.code][i] = val(move.to);
-                break;
+        for (byte offset : BISHOP_OFFSETS) {
+            int to = square + offset;
+            while (mailbox120[to] == 0) {
+                to += offset;
+            }
+            if (mailbox120[to] == bishop || mailbox120[to] == queen) {
+                return true;
             }
         }
+        for (byte offset : ROOK_OFFSETS) {
+            int to = square + offset;
+            while (mailbox120[to] == 0) {
+                to += offset;
+            }
+            if (mailbox120[to] == rook || mailbox120[to] == queen) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Доску не меняет и не зависит от того, чей сейчас ход.
+     *
+     * @param kingColor цвет короля, которому детектируется шах
+     */
+    public boolean isCheck(Color kingColor) {
+        return isSquareAttacked(kingSquare(kingColor), kingColor == WHITE ? BLACK : WHITE);
     }
 
     public void makeMove(Move move) {
-        mailbox120[val(move.from)] = EMP;
-        mailbox120[val(move.to)] = move.piece;
-
-        switch (move.piece) {
-            case W_KING:
-                kingPos[WHITE.code] = val(move.to);
-                break;
-            case B_KING:
-                kingPos[BLACK.code] = val(move.to);
-                break;
-            case W_BISHOP:
-                makeNonKingMove(move, bishopPos, WHITE);
-                break;
-            case W_ROOK:
-                makeNonKingMove(move, rookPos, WHITE);
-                break;
-            case W_QUEEN:
-                makeNonKingMove(move, queenPos, WHITE);
-                break;
-            case W_KNIGHT:
-                makeNonKingMove(move, knightPos, WHITE);
-                break;
-            case B_BISHOP:
-                makeNonKingMove(move, bishopPos, BLACK);
-                break;
-            case B_ROOK:
-                makeNonKingMove(move, rookPos, BLACK);
-                break;
-            case B_QUEEN:
-                makeNonKingMove(move, queenPos, BLACK);
-                break;
-            case B_KNIGHT:
-                makeNonKingMove(move, knightPos, BLACK);
-                break;
-            default:
-                throw new IllegalStateException("Неправильное состояние");
-        }
-
-        if (move.isCapture()) {
-            switch (move.capture.get()) {
-                case W_BISHOP:
-                    makeCapture(move, bishopPos, WHITE);
-                    break;
-                case W_ROOK:
-                    makeCapture(move, rookPos, WHITE);
-                    break;
-                case W_QUEEN:
-                    makeCapture(move, queenPos, WHITE);
-                    break;
-                case W_KNIGHT:
-                    makeCapture(move, knightPos, WHITE);
-                    break;
-                case B_BISHOP:
-                    makeCapture(move, bishopPos, BLACK);
-                    break;
-                case B_ROOK:
-                    makeCapture(move, rookPos, BLACK);
-                    break;
-                case B_QUEEN:
-                    makeCapture(move, queenPos, BLACK);
-                    break;
-                case B_KNIGHT:
-                    makeCapture(move, knightPos, BLACK);
-                    break;
-                case OUT:
-                    throw new IllegalStateException("Ты зачем за край доски вышел, дурень");
-                case EMP:
-                    throw new IllegalStateException("Ты зачем пустую клетку сожрал, дурень");
-                case W_KING:
-                    throw new IllegalStateException("Ну класс, на короля позарился. Да еще и белого");
-                case B_KING:
-                    throw new IllegalStateException("Ну класс, теперь на нигера полез.");
-                default:
-                    System.out.println(this);
-                    throw new IllegalStateException("Неправильное взятие, " + move.capture.get());
+        makeMove(move.toInt());
+    }
+
+    /**
+     * @param move ход в упаковке {@link Moves}
+     */
+    public void makeMove(int move) {
+        int from = Moves.from(move), to = Moves.to(move);
+        int piece = Moves.pieceCode(move), capture = Moves.captureCode(move);
+
+        key ^= Zobrist.pieceSquare(piece, from) ^ Zobrist.pieceSquare(piece, to) ^ Zobrist.blackToMove();
+
+        if (capture != 0) {
+            if (capture == W_KING.code || capture == B_KING.code) {
+                throw new IllegalStateException("Взятие короля, " + Moves.toString(move) + this);
             }
+            key ^= Zobrist.pieceSquare(capture, to);
+            // на место взятой фигуры в ее списке ставим последнюю, а ее индекс запоминаем для отката
+            byte index = pieceIndex[to];
+            byte last = pieceSquares[capture][--pieceCount[capture]];
+            pieceSquares[capture][index] = last;
+            pieceIndex[last] = index;
+            undoIndex[undoSize++] = index;
         }
 
+        byte index = pieceIndex[from];
+        pieceSquares[piece][index] = (byte) to;
+        pieceIndex[to] = index;
+
+        mailbox120[from] = 0;
+        mailbox120[to] = SQUARE_BYTE[piece];
+
         // обновляем очередь хода
         this.sideToMove = this.sideToMove == WHITE ? BLACK : WHITE;
+
+        if (DEBUG_HASH) {
+            verifyKey();
+        }
     }
 
     public void takeBack(Move move) {
-        mailbox120[val(move.from)] = move.piece;
-
-        byte[] piecePos;
-        switch (move.piece) {
-            case W_KING:
-            case B_KING:
-                piecePos = kingPos;
-                break;
-            case W_BISHOP:
-                piecePos = bishopPos[WHITE.code];
-                break;
-            case W_ROOK:
-                piecePos = rookPos[WHITE.code];
-                break;
-            case W_QUEEN:
-                piecePos = queenPos[WHITE.code];
-                break;
-            case W_KNIGHT:
-                piecePos = knightPos[WHITE.code];
-                break;
-            case B_BISHOP:
-                piecePos = bishopPos[BLACK.code];
-                break;
-            case B_ROOK:
-                piecePos = rookPos[BLACK.code];
-                break;
-            case B_QUEEN:
-                piecePos = queenPos[BLACK.code];
-                break;
-            case B_KNIGHT:
-                piecePos = knightPos[BLACK.code];
-                break;
-            default:
-                throw new IllegalStateException("Неправильное состояние");
-        }
-        for(int i = 0; i < piecePos.length;i++){
-            if(piecePos[i] == val(move.to)){
-                piecePos[i] = val(move.from);
-            }
-        }
-
-
-        if (move.isCapture()) {
-            mailbox120[val(move.to)] = move.capture.get();
-
-            switch (move.capture.get()) {
-                case W_BISHOP:
-                    takeBackCapture(move, bishopPos, WHITE);
-                    break;
-                case W_ROOK:
-                    takeBackCapture(move, rookPos, WHITE);
-                    break;
-                case W_QUEEN:
-                    takeBackCapture(move, queenPos, WHITE);
-                    break;
-                case W_KNIGHT:
-                    takeBackCapture(move, knightPos, WHITE);
-                    break;
-                case B_BISHOP:
-                    takeBackCapture(move, bishopPos, BLACK);
-                    break;
-                case B_ROOK:
-                    takeBackCapture(move, rookPos, BLACK);
-                    break;
-                case B_QUEEN:
-                    takeBackCapture(move, queenPos, BLACK);
-                    break;
-                case B_KNIGHT:
-                    takeBackCapture(move, knightPos, BLACK);
-                    break;
-                default:
-                    throw new IllegalStateException("Неправильное взятие, " + move.capture.get());
-            }
+        takeBack(move.toInt());
+    }
 
+    /**
+     * @param move ход в упаковке {@link Moves}, ранее сделанный {@link #makeMove(int)}
+     */
+    public void takeBack(int move) {
+        int from = Moves.from(move), to = Moves.to(move);
+        int piece = Moves.pieceCode(move), capture = Moves.captureCode(move);
+
+        key ^= Zobrist.pieceSquare(piece, from) ^ Zobrist.pieceSquare(piece, to) ^ Zobrist.blackToMove();
+
+        byte index = pieceIndex[to];
+        pieceSquares[piece][index] = (byte) from;
+        pieceIndex[from] = index;
+        mailbox120[from] = SQUARE_BYTE[piece];
+
+        if (capture != 0) {
+            key ^= Zobrist.pieceSquare(capture, to);
+            // возвращаем взятую фигуру на ее прежний индекс, а занявшую его - в конец списка
+            byte captured = undoIndex[--undoSize];
+            byte moved = pieceSquares[capture][captured];
+            pieceSquares[capture][pieceCount[capture]] = moved;
+            pieceIndex[moved] = pieceCount[capture]++;
+            pieceSquares[capture][captured] = (byte) to;
+            pieceIndex[to] = captured;
+            mailbox120[to] = SQUARE_BYTE[capture];
         } else {
-            mailbox120[val(move.to)] = EMP;
+            mailbox120[to] = 0;
         }
         // возвращаем очередь хода
         this.sideToMove = this.sideToMove == WHITE ? BLACK : WHITE;
+
+        if (DEBUG_HASH) {
+            verifyKey();
+        }
     }
 
+    /**
+     * @return 64-битный ключ Зобриста текущей позиции (расстановка и очередь хода)
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Пересчитывает ключ после новой расстановки. Наследники, которые ведут свои ключи расстановки,
+     * пересчитывают здесь и их: метод вызывается и из конструктора, до инициализации полей наследника.
+     */
+    void resetKey() {
+        key = computeKey();
+    }
+
+    /**
+     * Считает ключ Зобриста полным проходом по доске, не используя инкрементальное значение.
+     */
+    public long computeKey() {
+        long k = sideToMove == BLACK ? Zobrist.blackToMove() : 0L;
+        for (int square = H1.value; square <= A8.value; square++) {
+            int code = mailbox120[square] & CODE_MASK;
+            if (code != 0) {
+                k ^= Zobrist.pieceSquare(code, square);
+            }
+        }
+        return k;
+    }
+
+    private void verifyKey() {
+        long expected = computeKey();
+        if (key != expected) {
+            throw new IllegalStateException("Рассинхронизация ключа Зобриста: " + Long.toHexString(key)
+                    + " вместо " + Long.toHexString(expected) + this);
+        }
+    }
+
+    public Piece getPiece(int square) {
+        int value = mailbox120[square];
+        return value == OUT_SQUARE ? OUT : Piece.byCode(value & CODE_MASK);
+    }
+
+    public Color getSideToMove() {
+        return sideToMove;
+    }
+
+    /**
+     * @return права на рокировку из FEN: биты 1 - K, 2 - Q, 4 - k, 8 - q
+     */
+    public int getCastlingRights() {
+        return castlingRights;
+    }
+
+    /**
+     * @return поле взятия на проходе из FEN (индекс mailbox120) или 0
+     */
+    public int getEnPassantSquare() {
+        return enPassantSquare;
+    }
+
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+
+    public int getFullmoveNumber() {
+        return fullmoveNumber;
+    }
 
     public Color getOpponentColor() {
         return sideToMove == WHITE ? BLACK : WHITE;
     }
 
+    /**
+     * @return FEN позиции со всеми шестью полями, разбирается обратно {@link #setFen(CharSequence)}
+     */
+    public String toFen() {
+        StringBuilder fen = new StringBuilder(90);
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                int code = mailbox120[A8.value - (7 - rank) * 10 - file] & CODE_MASK;
+                if (code == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                fen.append(FEN_CHARS.charAt(code));
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (rank > 0) {
+                fen.append('/');
+            }
+        }
+        fen.append(sideToMove == WHITE ? " w " : " b ");
+        if (castlingRights == 0) {
+            fen.append('-');
+        }
+        for (int right = 0; right < 4; right++) {
+            if ((castlingRights & 1 << right) != 0) {
+                fen.append("KQkq".charAt(right));
+            }
+        }
+        fen.append(' ').append(enPassantSquare == 0 ? "-" : new Square(enPassantSquare).toString().toLowerCase());
+        return fen.append(' ').append(halfmoveClock).append(' ').append(fullmoveNumber).toString();
+    }
+
     public String toString() {
         StringBuilder sb = new StringBuilder("\n");
         for (int s = A8.value; s >= H8.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A7.value; s >= H7.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A6.value; s >= H6.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A5.value; s >= H5.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A4.value; s >= H4.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A3.value; s >= H3.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A2.value; s >= H2.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
         sb.append("\n");
         for (int s = A1.value; s >= H1.value; s--) {
-            sb.append(mailbox120[s]).append(" ");
+            sb.append(getPiece(s)).append(" ");
         }
 
         return sb.toString();
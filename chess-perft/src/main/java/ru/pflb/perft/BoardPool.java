@@ -0,0 +1,33 @@
+package ru.pflb.perft;
+
+/**
+ * По одной переиспользуемой {@link Board} на поток для пакетной обработки позиций: вместо
+ * {@code new Board(fen)} на каждую позицию - {@code BoardPool.board(fen)} без мусора.
+ * <p>
+ * Возвращаемая доска принадлежит потоку и действительна до следующего вызова {@link #board(CharSequence)}
+ * в том же потоке. Если позицию нужно сохранить или передать другому потоку, нужна {@link Board#copy()}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class BoardPool {
+
+    private static final ThreadLocal<Board> BOARDS = ThreadLocal.withInitial(Board::new);
+
+    private BoardPool() {
+    }
+
+    /**
+     * @return доска потока в том состоянии, в котором ее оставил предыдущий вызов
+     */
+    static Board board() {
+        return BOARDS.get();
+    }
+
+    /**
+     * @return доска потока, переразобранная по {@code fen}
+     * @throws ru.pflb.perft.exception.FenParseException если FEN записан неверно
+     */
+    public static Board board(CharSequence fen) {
+        return BOARDS.get().setFen(fen);
+    }
+}
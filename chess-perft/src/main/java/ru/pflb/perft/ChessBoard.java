@@ -0,0 +1,63 @@
+package ru.pflb.perft;
+
+/**
+ * Общий интерфейс реализаций доски, через который работает {@link Perft}.
+ * Поля во всех методах и в упаковке ходов {@link Moves} - индексы mailbox120 ({@link Square#value}),
+ * поэтому ходы и ключи Зобриста одной позиции совпадают у всех реализаций.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public interface ChessBoard {
+
+    /**
+     * Очищает список и заполняет его всеми псевдолегальными ходами стороны, чей ход.
+     */
+    void genAllMoves(MoveList moves);
+
+    /**
+     * Очищает список и заполняет его легальными ходами стороны, чей ход.
+     */
+    void genLegalMoves(MoveList moves);
+
+    /**
+     * @return число легальных ходов, без их записи
+     */
+    int countLegalMoves();
+
+    /**
+     * @param move ход в упаковке {@link Moves}
+     */
+    void makeMove(int move);
+
+    /**
+     * @param move ход в упаковке {@link Moves}, ранее сделанный {@link #makeMove(int)}
+     */
+    void takeBack(int move);
+
+    boolean isSquareAttacked(int square, Color byColor);
+
+    /**
+     * @param kingColor цвет короля, которому детектируется шах
+     */
+    boolean isCheck(Color kingColor);
+
+    /**
+     * @param square индекс поля в mailbox120
+     * @return фигура на поле или {@link Piece#EMP}
+     */
+    Piece getPiece(int square);
+
+    Color getSideToMove();
+
+    Color getOpponentColor();
+
+    /**
+     * @return 64-битный ключ Зобриста текущей позиции
+     */
+    long getKey();
+
+    /**
+     * @return независимая копия доски той же реализации
+     */
+    ChessBoard copy();
+}
@@ -0,0 +1,48 @@
+package ru.pflb.perft;
+
+import static ru.pflb.perft.Color.WHITE;
+
+/**
+ * {@link Board}, у которого псевдоходы и проверка шаха идут через генераторы, собранные {@link MoveGenerators}
+ * под каждый цвет. Легальная генерация, make/takeBack и все остальное - те же, что у {@link Board}: в них
+ * нет ветвлений по цвету, которые стоило бы убирать. Обычный {@link Board} остается эталоном для сверки.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class CompiledBoard extends Board {
+
+    private static final MoveGenerator WHITE_MOVES = MoveGenerators.forColor(Color.WHITE),
+            BLACK_MOVES = MoveGenerators.forColor(Color.BLACK);
+
+    public CompiledBoard(String fen) {
+        super(fen);
+    }
+
+    public CompiledBoard(Board other) {
+        super(other);
+    }
+
+    @Override
+    public CompiledBoard copy() {
+        return new CompiledBoard(this);
+    }
+
+    @Override
+    public void genAllMoves(MoveList moves) {
+        moves.clear();
+        (getSideToMove() == WHITE ? WHITE_MOVES : BLACK_MOVES).genAllMoves(mailbox120, pieceSquares, pieceCount, moves);
+        if (PerftStats.ENABLED) {
+            PerftStats.countMoves(moves);
+        }
+    }
+
+    @Override
+    public boolean isSquareAttacked(int square, Color byColor) {
+        return (byColor == WHITE ? BLACK_MOVES : WHITE_MOVES).isAttacked(mailbox120, square);
+    }
+
+    @Override
+    public boolean isCheck(Color kingColor) {
+        return (kingColor == WHITE ? WHITE_MOVES : BLACK_MOVES).isAttacked(mailbox120, kingSquare(kingColor));
+    }
+}
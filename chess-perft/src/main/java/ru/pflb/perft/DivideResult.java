@@ -0,0 +1,33 @@
+package ru.pflb.perft;
+
+/**
+ * Результат divide для одного хода из корня: число листьев его поддерева и время счета.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class DivideResult {
+
+    public final Move move;
+
+    public final long count;
+
+    public final long nanos;
+
+    public DivideResult(Move move, long count, long nanos) {
+        this.move = move;
+        this.count = count;
+        this.nanos = nanos;
+    }
+
+    /**
+     * @return листьев в секунду; для поддеревьев, посчитанных быстрее таймера, - 0
+     */
+    public long nodesPerSecond() {
+        return nanos == 0 ? 0 : (long) (count * 1e9 / nanos);
+    }
+
+    @Override
+    public String toString() {
+        return move + ": " + count + " (" + nanos / 1_000_000 + " ms, " + nodesPerSecond() + " nps)";
+    }
+}
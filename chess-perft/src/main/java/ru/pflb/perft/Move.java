@@ -24,6 +24,24 @@ public class Move {
         this.capture = Optional.ofNullable(capture);
     }
 
+    /**
+     * Распаковывает ход из представления {@link Moves}.
+     */
+    public static Move of(int move) {
+        Piece capture = Moves.capture(move);
+        return new Move(new Square(Moves.from(move)), new Square(Moves.to(move)), Moves.piece(move),
+                capture == Piece.EMP ? null : capture);
+    }
+
+    /**
+     * @return ход в представлении {@link Moves}
+     */
+    public int toInt() {
+        return capture.isPresent()
+                ? Moves.pack(from.value, to.value, piece, capture.get())
+                : Moves.pack(from.value, to.value, piece);
+    }
+
     public boolean isCapture() {
         return capture.map(p -> true).orElse(false);
     }
@@ -0,0 +1,22 @@
+package ru.pflb.perft;
+
+/**
+ * Генератор псевдоходов и проверки атаки для одного цвета, собранный {@link MoveGenerators} при запуске.
+ * Работает прямо с массивами {@link Board}: сгенерированный класс загружается своим загрузчиком и видит
+ * только публичные типы, поэтому состояние доски передается параметрами.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public interface MoveGenerator {
+
+    /**
+     * Дописывает в {@code moves} все псевдолегальные ходы цвета генератора, в том же порядке, что и
+     * {@link Board#genAllMoves(MoveList)}.
+     */
+    void genAllMoves(byte[] mailbox120, byte[][] pieceSquares, byte[] pieceCount, MoveList moves);
+
+    /**
+     * @return бьет ли противник цвета генератора поле {@code square}
+     */
+    boolean isAttacked(byte[] mailbox120, int square);
+}
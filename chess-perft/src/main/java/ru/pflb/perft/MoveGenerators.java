@@ -0,0 +1,160 @@
+package ru.pflb.perft;
+
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import javassist.NotFoundException;
+
+import java.io.IOException;
+
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Color.WHITE;
+import static ru.pflb.perft.Piece.*;
+
+/**
+ * Собирает при загрузке класса по {@link MoveGenerator} на каждый цвет: исходный текст генерируется под цвет,
+ * компилируется javassist и загружается своим загрузчиком.
+ * <p>
+ * В сгенерированном коде нет ветвлений по цвету и обращений к таблицам смещений: коды фигур, бит цвета
+ * противника, упаковка хода и смещения подставлены числами, циклы по направлениям развернуты. Прыжки коня и
+ * короля идут по смещениям без таблиц: двухполосная рамка mailbox120 не дает выйти за массив.
+ * Порядок ходов тот же, что у {@link Board}, поэтому {@link Board} остается эталоном для сверки.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+final class MoveGenerators {
+
+    private static final String PACKAGE = "ru.pflb.perft.generated.";
+
+    private static final MoveGenerator[] BY_COLOR = {compile(WHITE), compile(BLACK)};
+
+    private MoveGenerators() {
+    }
+
+    static MoveGenerator forColor(Color color) {
+        return BY_COLOR[color.code];
+    }
+
+    /**
+     * Загрузчик сгенерированных классов: {@code defineClass} защищенный, поэтому нужен свой наследник.
+     */
+    private static final class GeneratedClassLoader extends ClassLoader {
+
+        GeneratedClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(byte[] bytecode) {
+            return defineClass(null, bytecode, 0, bytecode.length);
+        }
+    }
+
+    private static MoveGenerator compile(Color color) {
+        ClassLoader loader = MoveGenerator.class.getClassLoader();
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(loader));
+        try {
+            CtClass generator = pool.makeClass(PACKAGE + (color == WHITE ? "White" : "Black") + "MoveGenerator");
+            generator.addInterface(pool.get(MoveGenerator.class.getName()));
+            generator.addMethod(CtNewMethod.make(genAllMovesSource(color), generator));
+            generator.addMethod(CtNewMethod.make(isAttackedSource(color), generator));
+            byte[] bytecode = generator.toBytecode();
+            generator.detach();
+            return (MoveGenerator) new GeneratedClassLoader(loader).define(bytecode)
+                    .getDeclaredConstructor().newInstance();
+        } catch (CannotCompileException | NotFoundException | IOException | ReflectiveOperationException e) {
+            throw new IllegalStateException("Не удалось собрать генератор ходов для " + color, e);
+        }
+    }
+
+    /**
+     * @return код фигуры цвета {@code color} того же вида, что и белая {@code white}
+     */
+    private static int code(Piece white, Color color) {
+        return white.code + (color == WHITE ? 0 : 6);
+    }
+
+    private static Color opponent(Color color) {
+        return color == WHITE ? BLACK : WHITE;
+    }
+
+    static String genAllMovesSource(Color color) {
+        int opponentBit = color == WHITE ? Board.BLACK_BIT : Board.WHITE_BIT;
+        StringBuilder src = new StringBuilder()
+                .append("public void genAllMoves(byte[] m, byte[][] ps, byte[] pc, ")
+                .append(MoveList.class.getName()).append(" moves) {\n")
+                .append("int from; int to; int t; int p; int n; byte[] sq;\n");
+
+        int king = code(W_KING, color);
+        src.append("from = ps[").append(king).append("][0];\n");
+        for (byte offset : Board.KING_OFFSETS) {
+            jump(src, offset, king, opponentBit);
+        }
+        slider(src, Board.BISHOP_OFFSETS, code(W_BISHOP, color), opponentBit);
+        slider(src, Board.ROOK_OFFSETS, code(W_ROOK, color), opponentBit);
+        slider(src, Board.KING_OFFSETS, code(W_QUEEN, color), opponentBit);
+
+        int knight = code(W_KNIGHT, color);
+        forEachPiece(src, knight);
+        for (byte offset : Board.KNIGHT_OFFSETS) {
+            jump(src, offset, knight, opponentBit);
+        }
+        return src.append("}\n}\n").toString();
+    }
+
+    private static void forEachPiece(StringBuilder src, int code) {
+        src.append("sq = ps[").append(code).append("]; n = pc[").append(code).append("];\n")
+                .append("for (p = 0; p < n; p++) {\nfrom = sq[p];\n");
+    }
+
+    private static void jump(StringBuilder src, int offset, int code, int opponentBit) {
+        src.append("to = from + ").append(offset).append("; t = m[to];\n")
+                .append("if (t == 0) { moves.add(from | to << 7 | ").append(code << 14).append("); }\n")
+                .append("else if ((t & ").append(opponentBit).append(") != 0) { moves.add(from | to << 7 | ")
+                .append(code << 14).append(" | (t & ").append(Board.CODE_MASK).append(") << 18); }\n");
+    }
+
+    private static void slider(StringBuilder src, byte[] offsets, int code, int opponentBit) {
+        forEachPiece(src, code);
+        for (byte offset : offsets) {
+            src.append("to = from + ").append(offset).append(";\n")
+                    .append("while ((t = m[to]) == 0) { moves.add(from | to << 7 | ").append(code << 14)
+                    .append("); to += ").append(offset).append("; }\n")
+                    .append("if ((t & ").append(opponentBit).append(") != 0) { moves.add(from | to << 7 | ")
+                    .append(code << 14).append(" | (t & ").append(Board.CODE_MASK).append(") << 18); }\n");
+        }
+        src.append("}\n");
+    }
+
+    static String isAttackedSource(Color color) {
+        Color attacker = opponent(color);
+        int knight = Board.SQUARE_BYTE[code(W_KNIGHT, attacker)], king = Board.SQUARE_BYTE[code(W_KING, attacker)],
+                bishop = Board.SQUARE_BYTE[code(W_BISHOP, attacker)], rook = Board.SQUARE_BYTE[code(W_ROOK, attacker)],
+                queen = Board.SQUARE_BYTE[code(W_QUEEN, attacker)];
+        StringBuilder src = new StringBuilder("public boolean isAttacked(byte[] m, int s) {\nint to; int t;\n");
+        neighbours(src, Board.KNIGHT_OFFSETS, knight);
+        neighbours(src, Board.KING_OFFSETS, king);
+        ray(src, Board.BISHOP_OFFSETS, bishop, queen);
+        ray(src, Board.ROOK_OFFSETS, rook, queen);
+        return src.append("return false;\n}\n").toString();
+    }
+
+    private static void neighbours(StringBuilder src, byte[] offsets, int piece) {
+        src.append("if (");
+        for (int i = 0; i < offsets.length; i++) {
+            src.append(i == 0 ? "" : " || ").append("m[s + ").append(offsets[i]).append("] == ").append(piece);
+        }
+        src.append(") { return true; }\n");
+    }
+
+    private static void ray(StringBuilder src, byte[] offsets, int slider, int queen) {
+        for (byte offset : offsets) {
+            src.append("to = s + ").append(offset).append(";\n")
+                    .append("while ((t = m[to]) == 0) { to += ").append(offset).append("; }\n")
+                    .append("if (t == ").append(slider).append(" || t == ").append(queen)
+                    .append(") { return true; }\n");
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package ru.pflb.perft;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Список ходов в упаковке {@link Moves} поверх заранее выделенного массива.
+ * Perft держит по одному списку на полуход и переиспользует их, поэтому генерация не создает мусора.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class MoveList {
+
+    /**
+     * С запасом: в позиции без пешек даже девять ферзей дают меньше 256 псевдоходов на всю армию.
+     */
+    public static final int MAX_MOVES = 512;
+
+    private final int[] moves;
+
+    private int size;
+
+    public MoveList() {
+        this(MAX_MOVES);
+    }
+
+    public MoveList(int capacity) {
+        this.moves = new int[capacity];
+    }
+
+    public void add(int move) {
+        moves[size++] = move;
+    }
+
+    public int get(int index) {
+        return moves[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Переходник к объектному API: создает по {@link Move} на каждый ход.
+     */
+    public List<Move> toMoves() {
+        List<Move> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(Move.of(moves[i]));
+        }
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < size; i++) {
+            sb.append(i == 0 ? "" : ", ").append(Moves.toString(moves[i]));
+        }
+        return sb.append(']').toString();
+    }
+}
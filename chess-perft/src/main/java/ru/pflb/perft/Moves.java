@@ -0,0 +1,69 @@
+package ru.pflb.perft;
+
+/**
+ * Упаковка хода в int, чтобы генератор не создавал объектов:
+ * <pre>
+ *  биты  0-6   поле "откуда" (индекс mailbox120)
+ *  биты  7-13  поле "куда"
+ *  биты 14-17  {@link Piece#code} ходящей фигуры
+ *  биты 18-21  {@link Piece#code} взятой фигуры, 0 - ход без взятия
+ * </pre>
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class Moves {
+
+    private Moves() {
+    }
+
+    public static int pack(int from, int to, Piece piece) {
+        return from | to << 7 | piece.code << 14;
+    }
+
+    public static int pack(int from, int to, Piece piece, Piece capture) {
+        return from | to << 7 | piece.code << 14 | capture.code << 18;
+    }
+
+    /**
+     * @param piece   {@link Piece#code} ходящей фигуры
+     * @param capture {@link Piece#code} взятой фигуры, 0 - ход без взятия
+     */
+    static int pack(int from, int to, int piece, int capture) {
+        return from | to << 7 | piece << 14 | capture << 18;
+    }
+
+    public static int from(int move) {
+        return move & 0x7F;
+    }
+
+    public static int to(int move) {
+        return move >>> 7 & 0x7F;
+    }
+
+    public static Piece piece(int move) {
+        return Piece.byCode(move >>> 14 & 0xF);
+    }
+
+    /**
+     * @return взятая фигура или {@link Piece#EMP}, если ход без взятия
+     */
+    public static Piece capture(int move) {
+        return Piece.byCode(move >>> 18 & 0xF);
+    }
+
+    static int pieceCode(int move) {
+        return move >>> 14 & 0xF;
+    }
+
+    static int captureCode(int move) {
+        return move >>> 18 & 0xF;
+    }
+
+    public static boolean isCapture(int move) {
+        return move >>> 18 != 0;
+    }
+
+    public static String toString(int move) {
+        return piece(move) + " " + new Square(from(move)) + "-" + new Square(to(move));
+    }
+}
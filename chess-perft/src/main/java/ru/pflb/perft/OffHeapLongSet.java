@@ -0,0 +1,183 @@
+package ru.pflb.perft;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Множество long вне кучи с открытой адресацией и линейным пробированием: сотни миллионов ключей не
+ * нагружают сборщик мусора и не стоят по объекту на ключ.
+ * <p>
+ * Множество поделено на сегменты со своей блокировкой и своим direct {@link ByteBuffer}: потоки, попавшие в разные
+ * сегменты, друг друга не ждут, а сегмент растет удвоением независимо от остальных. Сегмент выбирается старшими
+ * битами перемешанного ключа, слот в нем - младшими. Пустой слот - 0, поэтому сам ключ 0 хранится отдельным флагом.
+ * <p>
+ * Удаления нет: множество только растет, что и нужно для подсчета уникальных позиций.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class OffHeapLongSet {
+
+    private static final long MIX = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Один буфер адресуется int-индексом: не больше 2^27 слотов по 8 байт.
+     */
+    private static final int MAX_SEGMENT_SLOTS = 1 << 27;
+
+    private final Segment[] segments;
+
+    private final int segmentShift;
+
+    private final AtomicLong allocatedBytes = new AtomicLong(), peakBytes = new AtomicLong();
+
+    private volatile boolean containsZero;
+
+    public OffHeapLongSet() {
+        this(64, 1024);
+    }
+
+    /**
+     * @param segments     число сегментов, степень двойки
+     * @param initialSlots начальное число слотов сегмента, степень двойки
+     */
+    public OffHeapLongSet(int segments, int initialSlots) {
+        if (segments < 1 || Integer.bitCount(segments) != 1) {
+            throw new IllegalArgumentException("Число сегментов должно быть степенью двойки: " + segments);
+        }
+        if (initialSlots < 2 || Integer.bitCount(initialSlots) != 1 || initialSlots > MAX_SEGMENT_SLOTS) {
+            throw new IllegalArgumentException("Число слотов должно быть степенью двойки до " + MAX_SEGMENT_SLOTS
+                    + ": " + initialSlots);
+        }
+        this.segments = new Segment[segments];
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segments);
+        for (int i = 0; i < segments; i++) {
+            this.segments[i] = new Segment(initialSlots);
+        }
+    }
+
+    /**
+     * @return {@code true}, если ключа еще не было; из нескольких потоков, добавляющих один ключ,
+     * {@code true} получит ровно один
+     */
+    public boolean add(long key) {
+        if (key == 0) {
+            synchronized (this) {
+                boolean added = !containsZero;
+                containsZero = true;
+                return added;
+            }
+        }
+        long hash = key * MIX;
+        Segment segment = segments[segmentShift == 64 ? 0 : (int) (hash >>> segmentShift)];
+        synchronized (segment) {
+            return segment.add(key, (int) hash);
+        }
+    }
+
+    public boolean contains(long key) {
+        if (key == 0) {
+            return containsZero;
+        }
+        long hash = key * MIX;
+        Segment segment = segments[segmentShift == 64 ? 0 : (int) (hash >>> segmentShift)];
+        synchronized (segment) {
+            return segment.contains(key, (int) hash);
+        }
+    }
+
+    public long size() {
+        long size = containsZero ? 1 : 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return занято буферами сейчас, байт
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return наибольшая занятость буферами, байт; при росте сегмента старый и новый буферы живут одновременно
+     */
+    public long getPeakBytes() {
+        return peakBytes.get();
+    }
+
+    private ByteBuffer allocate(int slots) {
+        long bytes = (long) slots * 8;
+        peakBytes.accumulateAndGet(allocatedBytes.addAndGet(bytes), Math::max);
+        return ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder());
+    }
+
+    private final class Segment {
+
+        private ByteBuffer table;
+
+        private int mask;
+
+        private int size;
+
+        Segment(int slots) {
+            table = allocate(slots);
+            mask = slots - 1;
+        }
+
+        boolean add(long key, int hash) {
+            int i = hash & mask;
+            for (long slot; (slot = table.getLong(i << 3)) != 0; i = (i + 1) & mask) {
+                if (slot == key) {
+                    return false;
+                }
+            }
+            table.putLong(i << 3, key);
+            // заполнение до 3/4: при линейном пробировании и хорошо перемешанных ключах цепочки еще короткие,
+            // а память на сотни миллионов ключей важнее
+            if (++size > (mask + 1) / 4 * 3) {
+                grow();
+            }
+            return true;
+        }
+
+        boolean contains(long key, int hash) {
+            for (int i = hash & mask; ; i = (i + 1) & mask) {
+                long slot = table.getLong(i << 3);
+                if (slot == key) {
+                    return true;
+                }
+                if (slot == 0) {
+                    return false;
+                }
+            }
+        }
+
+        private void grow() {
+            int slots = (mask + 1) * 2;
+            if (slots > MAX_SEGMENT_SLOTS) {
+                throw new IllegalStateException("Сегмент множества переполнен: " + size + " ключей");
+            }
+            ByteBuffer old = table;
+            int oldSlots = mask + 1;
+            table = allocate(slots);
+            mask = slots - 1;
+            for (int j = 0; j < oldSlots; j++) {
+                long key = old.getLong(j << 3);
+                if (key != 0) {
+                    int i = (int) (key * MIX) & mask;
+                    while (table.getLong(i << 3) != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    table.putLong(i << 3, key);
+                }
+            }
+            // сам буфер освободит сборщик мусора вместе с объектом ByteBuffer
+            allocatedBytes.addAndGet(-(long) oldSlots * 8);
+        }
+    }
+}
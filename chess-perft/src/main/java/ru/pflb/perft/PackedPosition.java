@@ -0,0 +1,132 @@
+package ru.pflb.perft;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static ru.pflb.perft.BitboardBoard.SQ120;
+import static ru.pflb.perft.BitboardBoard.SQ64;
+import static ru.pflb.perft.Piece.*;
+
+/**
+ * Позиция фиксированной длины, {@value #BYTES} байт, для больших корпусов позиций:
+ * <pre>
+ *  байты  0-7   занятость: бит i - поле i (a1 = 0, b1 = 1, ..., h8 = 63), little-endian
+ *  байты  8-23  коды фигур по 4 бита на занятые поля в порядке возрастания поля, младший полубайт - первый
+ *  байт  24     бит 0 - ход черных, биты 1-4 - права на рокировку KQkq
+ *  байт  25     поле взятия на проходе (0-63) плюс один, 0 - нет
+ *  байты 26-31  резерв, нули
+ * </pre>
+ * Коды фигур свои и не зависят от {@link Piece#code}: бит 3 - черная фигура, младшие три бита -
+ * король 1, ферзь 2, ладья 3, слон 4, конь 5; пешке отведен код 6, но пешек в генераторе нет.
+ * В 16 байт помещаются 32 фигуры, позиции с большим числом фигур не кодируются.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class PackedPosition {
+
+    public static final int BYTES = 32;
+
+    private static final int MAX_PIECES = 32;
+
+    // Код полубайта по Piece.code и обратно.
+    private static final byte[] NIBBLE = new byte[12];
+    private static final Piece[] BY_NIBBLE = new Piece[16];
+
+    static {
+        Piece[] order = {W_KING, W_QUEEN, W_ROOK, W_BISHOP, W_KNIGHT, B_KING, B_QUEEN, B_ROOK, B_BISHOP, B_KNIGHT};
+        for (int i = 0; i < order.length; i++) {
+            int nibble = (i < 5 ? 0 : 8) | i % 5 + 1;
+            NIBBLE[order[i].code] = (byte) nibble;
+            BY_NIBBLE[nibble] = order[i];
+        }
+    }
+
+    private PackedPosition() {
+    }
+
+    /**
+     * Записывает позицию в {@code buffer} с абсолютного смещения {@code offset}, позиция буфера не меняется.
+     * Права на рокировку и взятие на проходе есть только у {@link Board}, у остальных досок они пишутся нулями.
+     */
+    public static void write(ChessBoard board, ByteBuffer buffer, int offset) {
+        long occupancy = 0;
+        long low = 0, high = 0;
+        int pieces = 0;
+        for (int sq = 0; sq < 64; sq++) {
+            Piece piece = board.getPiece(SQ120[sq]);
+            if (piece == EMP) {
+                continue;
+            }
+            if (pieces == MAX_PIECES) {
+                throw new IllegalArgumentException("Больше " + MAX_PIECES + " фигур не кодируется" + board);
+            }
+            occupancy |= 1L << sq;
+            long nibble = NIBBLE[piece.code];
+            if (pieces < 16) {
+                low |= nibble << pieces * 4;
+            } else {
+                high |= nibble << (pieces - 16) * 4;
+            }
+            pieces++;
+        }
+        int flags = board.getSideToMove() == Color.BLACK ? 1 : 0;
+        int enPassant = 0;
+        if (board instanceof Board) {
+            Board mailbox = (Board) board;
+            flags |= mailbox.getCastlingRights() << 1;
+            enPassant = mailbox.getEnPassantSquare() == 0 ? 0 : SQ64[mailbox.getEnPassantSquare()] + 1;
+        }
+        putLong(buffer, offset, occupancy);
+        putLong(buffer, offset + 8, low);
+        putLong(buffer, offset + 16, high);
+        putLong(buffer, offset + 24, flags | enPassant << 8);
+    }
+
+    /**
+     * Расставляет позицию из {@code buffer} со смещения {@code offset} на {@code board}, без разбора текста.
+     *
+     * @return {@code board}
+     * @throws IllegalStateException если запись повреждена
+     */
+    public static Board read(ByteBuffer buffer, int offset, Board board) {
+        long occupancy = getLong(buffer, offset);
+        long low = getLong(buffer, offset + 8);
+        long high = getLong(buffer, offset + 16);
+        long tail = getLong(buffer, offset + 24);
+        if (Long.bitCount(occupancy) > MAX_PIECES || tail >>> 16 != 0) {
+            throw new IllegalStateException("Поврежденная запись позиции со смещения " + offset);
+        }
+
+        board.clear();
+        for (int i = 0; occupancy != 0; i++, occupancy &= occupancy - 1) {
+            int nibble = (int) ((i < 16 ? low >>> i * 4 : high >>> (i - 16) * 4) & 0xF);
+            Piece piece = BY_NIBBLE[nibble];
+            if (piece == null) {
+                throw new IllegalStateException("Неизвестный код фигуры " + nibble + " со смещения " + offset);
+            }
+            // лимиты те же, что при разборе FEN: больше фигур одного вида доска не вмещает
+            if (board.pieceCount[piece.code] == (piece == W_KING || piece == B_KING ? 1 : Board.MAX_PIECES)) {
+                throw new IllegalStateException("Слишком много фигур " + piece + " в записи со смещения " + offset);
+            }
+            board.addPiece(piece, SQ120[Long.numberOfTrailingZeros(occupancy)]);
+        }
+        int flags = (int) (tail & 0xFF);
+        int enPassant = (int) (tail >>> 8 & 0xFF);
+        if (enPassant > 64) {
+            throw new IllegalStateException("Поврежденная запись позиции со смещения " + offset);
+        }
+        board.setup((flags & 1) == 0 ? Color.WHITE : Color.BLACK, flags >>> 1 & 0xF,
+                enPassant == 0 ? 0 : SQ120[enPassant - 1]);
+        return board;
+    }
+
+    // Формат всегда little-endian, независимо от ByteBuffer.order() вызывающего.
+    private static void putLong(ByteBuffer buffer, int offset, long value) {
+        buffer.putLong(offset, buffer.order() == ByteOrder.LITTLE_ENDIAN ? value : Long.reverseBytes(value));
+    }
+
+    private static long getLong(ByteBuffer buffer, int offset) {
+        long value = buffer.getLong(offset);
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN ? value : Long.reverseBytes(value);
+    }
+}
@@ -0,0 +1,75 @@
+package ru.pflb.perft;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static ru.pflb.perft.PackedPositionWriter.HEADER_BYTES;
+import static ru.pflb.perft.PackedPositionWriter.MAGIC;
+
+/**
+ * Читает файл {@link PackedPositionWriter} через отображение в память. Запись с номером {@code i} лежит
+ * по смещению {@code HEADER_BYTES + i * PackedPosition.BYTES}, поэтому доступ по индексу не требует разбора,
+ * и параллельные обработчики делят файл просто диапазонами индексов. Чтение потокобезопасно.
+ * <p>
+ * Отображение одним буфером ограничивает файл двумя гигабайтами, то есть 67 миллионами позиций.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PackedPositionReader {
+
+    private final MappedByteBuffer buffer;
+
+    private final int size;
+
+    private PackedPositionReader(MappedByteBuffer buffer, Path file) {
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.limit() < HEADER_BYTES || buffer.getLong(0) != MAGIC) {
+            throw new IllegalStateException("Не файл позиций: " + file);
+        }
+        if (buffer.getInt(8) != PackedPosition.BYTES) {
+            throw new IllegalStateException("Неподдерживаемый размер записи " + buffer.getInt(8) + ": " + file);
+        }
+        long count = buffer.getLong(16);
+        if (HEADER_BYTES + count * PackedPosition.BYTES != buffer.limit()) {
+            throw new IllegalStateException("Размер файла не сходится с числом записей " + count + ": " + file);
+        }
+        this.size = (int) count;
+    }
+
+    public static PackedPositionReader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Файл больше 2 ГБ: " + file);
+            }
+            return new PackedPositionReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), file);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Расставляет позицию с номером {@code index} на переданную доску.
+     *
+     * @return {@code board}
+     */
+    public Board read(int index, Board board) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Нет позиции " + index + ", всего " + size);
+        }
+        return PackedPosition.read(buffer, HEADER_BYTES + index * PackedPosition.BYTES, board);
+    }
+
+    /**
+     * Расставляет позицию с номером {@code index} на доску потока из {@link BoardPool}.
+     */
+    public Board read(int index) {
+        return read(index, BoardPool.board());
+    }
+}
@@ -0,0 +1,74 @@
+package ru.pflb.perft;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Пишет файл позиций в формате {@link PackedPosition}: заголовок {@value #HEADER_BYTES} байт
+ * (сигнатура {@code PERFTPK1}, размер записи, число записей), затем записи подряд.
+ * Число записей попадает в заголовок при {@link #close()}; файл без него читатель не откроет.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PackedPositionWriter implements Closeable {
+
+    static final long MAGIC = 0x314B505446524550L; // "PERFTPK1" в little-endian
+
+    static final int HEADER_BYTES = 32;
+
+    private static final int BUFFER_RECORDS = 2048;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * PackedPosition.BYTES)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    private long count;
+
+    public PackedPositionWriter(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        channel.position(HEADER_BYTES);
+    }
+
+    public void write(ChessBoard board) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        PackedPosition.write(board, buffer, buffer.position());
+        buffer.position(buffer.position() + PackedPosition.BYTES);
+        count++;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            // заголовок пишется целиком, с нулевым резервом: без записей файл иначе короче заголовка
+            header.putLong(MAGIC).putInt(PackedPosition.BYTES).putInt(0).putLong(count).clear();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package ru.pflb.perft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Параллельный perft: первые {@code splitDepth} полуходов дерева раскладываются на задачи {@link ForkJoinPool},
+ * а поддеревья ниже считаются последовательно через {@link Perft#count(ChessBoard, int)}.
+ * Каждая задача работает со своей копией доски. Общим может быть только кеш поддеревьев,
+ * и он должен быть потокобезопасным, например {@link SharedTranspositionTable}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class ParallelPerft {
+
+    private final int threads;
+
+    private final int splitDepth;
+
+    private final PerftCache cache;
+
+    public ParallelPerft() {
+        this(Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    /**
+     * @param threads    число потоков пула
+     * @param splitDepth сколько верхних полуходов раскладывать на задачи (1 - только корень, 2 - корень и ответы)
+     */
+    public ParallelPerft(int threads, int splitDepth) {
+        this(threads, splitDepth, null);
+    }
+
+    /**
+     * @param threads    число потоков пула
+     * @param splitDepth сколько верхних полуходов раскладывать на задачи (1 - только корень, 2 - корень и ответы)
+     * @param cache      общий для всех потоков кеш поддеревьев или {@code null}
+     */
+    public ParallelPerft(int threads, int splitDepth, PerftCache cache) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + threads);
+        }
+        if (splitDepth < 1) {
+            throw new IllegalArgumentException("Глубина разбиения должна быть положительной: " + splitDepth);
+        }
+        this.threads = threads;
+        this.splitDepth = splitDepth;
+        this.cache = cache;
+    }
+
+    public long calculate(ChessBoard board, int depth) {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new PerftTask(board.copy(), depth, splitDepth, cache));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Параллельный divide: поддеревья ходов из корня считаются задачами пула, остальные {@code splitDepth - 1}
+     * полуходов разбиваются как в {@link #calculate(ChessBoard, int)}. Результат каждого хода отдается в
+     * {@code callback} по готовности, в порядке завершения, а не генерации. Вызовы {@code callback} идут из потоков пула,
+     * но сериализованы на внутреннем замке, поэтому синхронизировать его не нужно. Монитор самого {@code callback}
+     * не захватывается: вызывающий код может держать его сам.
+     * Время хода - от начала до конца счета его поддерева, и при общем пуле поддеревья делят между собой потоки.
+     *
+     * @return сумма по всем ходам
+     */
+    public long divide(ChessBoard board, int depth, Consumer<DivideResult> callback) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Глубина divide должна быть положительной: " + depth);
+        }
+        ChessBoard root = board.copy();
+        Object callbackLock = new Object();
+        List<DivideTask> tasks = new ArrayList<>();
+        MoveList moves = new MoveList();
+        root.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            root.makeMove(move);
+            tasks.add(new DivideTask(move, new PerftTask(root.copy(), depth - 1, splitDepth - 1, cache), callback,
+                    callbackLock));
+            root.takeBack(move);
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            return pool.invoke(new RecursiveTask<Long>() {
+                @Override
+                protected Long compute() {
+                    invokeAll(tasks);
+                    long positions = 0;
+                    for (DivideTask task : tasks) {
+                        positions += task.join();
+                    }
+                    return positions;
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getSplitDepth() {
+        return splitDepth;
+    }
+
+    public PerftCache getCache() {
+        return cache;
+    }
+
+    private static class DivideTask extends RecursiveTask<Long> {
+
+        private final int move;
+
+        private final PerftTask subtree;
+
+        private final Consumer<DivideResult> callback;
+
+        // общий для всех ходов одного divide
+        private final Object callbackLock;
+
+        DivideTask(int move, PerftTask subtree, Consumer<DivideResult> callback, Object callbackLock) {
+            this.move = move;
+            this.subtree = subtree;
+            this.callback = callback;
+            this.callbackLock = callbackLock;
+        }
+
+        @Override
+        protected Long compute() {
+            long start = System.nanoTime();
+            long positions = subtree.compute();
+            DivideResult result = new DivideResult(Move.of(move), positions, System.nanoTime() - start);
+            synchronized (callbackLock) {
+                callback.accept(result);
+            }
+            return positions;
+        }
+    }
+
+    private static class PerftTask extends RecursiveTask<Long> {
+
+        private final ChessBoard board;
+
+        private final int depth;
+
+        private final int splitDepth;
+
+        private final PerftCache cache;
+
+        PerftTask(ChessBoard board, int depth, int splitDepth, PerftCache cache) {
+            this.board = board;
+            this.depth = depth;
+            this.splitDepth = splitDepth;
+            this.cache = cache;
+        }
+
+        @Override
+        protected Long compute() {
+            if (splitDepth == 0 || depth <= 1) {
+                return cache == null ? Perft.count(board, depth) : Perft.count(board, depth, cache);
+            }
+            if (cache != null) {
+                long cached = cache.probe(board.getKey(), depth);
+                if (cached >= 0) {
+                    return cached;
+                }
+            }
+
+            List<PerftTask> tasks = new ArrayList<>();
+            MoveList moves = new MoveList();
+            board.genAllMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                board.makeMove(move);
+                if (!board.isCheck(board.getOpponentColor())) {
+                    tasks.add(new PerftTask(board.copy(), depth - 1, splitDepth - 1, cache));
+                }
+                board.takeBack(move);
+            }
+            invokeAll(tasks);
+
+            long positions = 0;
+            for (PerftTask task : tasks) {
+                positions += task.join();
+            }
+            if (cache != null) {
+                cache.store(board.getKey(), depth, positions);
+            }
+            return positions;
+        }
+    }
+}
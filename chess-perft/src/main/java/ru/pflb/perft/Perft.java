@@ -1,33 +1,369 @@
 package ru.pflb.perft;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
+ * Работает с любой реализацией {@link ChessBoard}. Ходы каждого полухода генерируются в свой заранее созданный
+ * {@link MoveList}, поэтому сама рекурсия не создает объектов.
+ *
  * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
  */
 public class Perft {
 
-    public static int calculate(Board board, int depth) {
+    /**
+     * Способ получения легальных ходов в узле.
+     */
+    public enum Mode {
+        /**
+         * Псевдолегальные ходы, каждый делается и проверяется на шах своему королю, нелегальные откатываются.
+         */
+        PSEUDO_LEGAL,
+        /**
+         * {@link ChessBoard#genLegalMoves(MoveList)}: связки и шахи считаются один раз на узел, пробных ходов нет.
+         */
+        LEGAL,
+        /**
+         * Как {@link #LEGAL}, но на последнем полуходе ходы не делаются: число листьев - размер списка ходов.
+         */
+        BULK,
+        /**
+         * Как {@link #BULK}, но на последнем полуходе ходы даже не записываются: {@link ChessBoard#countLegalMoves()}.
+         */
+        COUNT_ONLY
+    }
+
+    public static final Mode DEFAULT_MODE = Mode.COUNT_ONLY;
+
+    public static int calculate(ChessBoard board, int depth) {
+        return (int) count(board, depth);
+    }
+
+    /**
+     * То же, что и {@link #calculate(ChessBoard, int)}, но без переполнения на больших глубинах.
+     */
+    public static long count(ChessBoard board, int depth) {
+        return count(board, depth, DEFAULT_MODE);
+    }
+
+    public static long count(ChessBoard board, int depth, Mode mode) {
+        return count(board, depth, mode, (PerftCache) null);
+    }
+
+    /**
+     * Perft с таблицей транспозиций: позиция, встреченная повторно на той же оставшейся глубине,
+     * не пересчитывается.
+     */
+    public static long count(ChessBoard board, int depth, PerftCache table) {
+        return count(board, depth, DEFAULT_MODE, table);
+    }
+
+    /**
+     * @param table кеш поддеревьев или {@code null}
+     */
+    public static long count(ChessBoard board, int depth, Mode mode, PerftCache table) {
+        return count(board, depth, mode, table, newMoveLists(depth));
+    }
+
+    /**
+     * То же, но в заранее созданные списки ходов: при счете многих позиций подряд, например набора EPD,
+     * списки создаются один раз, а не на каждый вызов.
+     *
+     * @param table кеш поддеревьев или {@code null}
+     * @param lists списки ходов из {@link #newMoveLists(int)} не меньше чем на {@code depth}
+     */
+    public static long count(ChessBoard board, int depth, Mode mode, PerftCache table, MoveList[] lists) {
+        if (lists.length <= depth) {
+            throw new IllegalArgumentException("Списков ходов " + lists.length + " на глубину " + depth);
+        }
+        if (!PerftStats.ENABLED) {
+            return count(board, depth, mode, table, lists, null, null);
+        }
+        PerftEvents.Count event = PerftEvents.countStarted(depth, mode);
+        long positions = count(board, depth, mode, table, lists, PerftStats.counters(), null);
+        PerftEvents.countFinished(event, positions);
+        return positions;
+    }
+
+    /**
+     * Число различных позиций ровно через {@code depth} полуходов, на всех ядрах.
+     * Подробный результат с памятью и отсечениями - {@link UniquePositions#calculate(ChessBoard, int)}.
+     */
+    public static long uniquePositions(ChessBoard board, int depth) {
+        return new UniquePositions().calculate(board, depth).positions;
+    }
+
+    /**
+     * Ленивый поток позиций ровно через {@code depth} полуходов, по одной на каждый путь, как их считает perft.
+     * Позиции отдаются легковесом, действительным только внутри действия, см. {@link PositionSpliterator}.
+     * Поток можно сделать параллельным, {@link Stream#parallel()} делит дерево по поддеревьям.
+     *
+     * @param board доска не меняется, обход идет по копии
+     */
+    public static Stream<PositionSpliterator.Leaf> positions(ChessBoard board, int depth) {
+        return StreamSupport.stream(new PositionSpliterator(board.copy(), depth), false);
+    }
+
+    /**
+     * Perft divide: считает поддерево каждого легального хода из корня отдельно и отдает результат в {@code callback}
+     * сразу, как только поддерево посчитано. Сравнение с divide эталонного движка показывает ход, в поддереве
+     * которого расходятся счетчики.
+     *
+     * @return сумма по всем ходам, то же, что и {@link #count(ChessBoard, int, Mode)}
+     */
+    public static long divide(ChessBoard board, int depth, Consumer<DivideResult> callback) {
+        return divide(board, depth, DEFAULT_MODE, callback);
+    }
+
+    public static long divide(ChessBoard board, int depth, Mode mode, Consumer<DivideResult> callback) {
+        return divide(board, depth, mode, null, callback, null);
+    }
+
+    /**
+     * @param budget ограничения или {@code null}
+     */
+    private static long divide(ChessBoard board, int depth, Mode mode, PerftCache table,
+                               Consumer<DivideResult> callback, Budget budget) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Глубина divide должна быть положительной: " + depth);
+        }
+        MoveList[] lists = newMoveLists(depth);
+        MoveList moves = lists[depth];
+        board.genLegalMoves(moves);
+        PerftStats.Counters stats = PerftStats.ENABLED ? PerftStats.counters() : null;
+        if (budget != null) {
+            budget.rootMoves = moves.size();
+        }
+
+        long positions = 0;
+        for (int i = 0; i < moves.size(); i++) {
+            int move = moves.get(i);
+            long start = System.nanoTime();
+            board.makeMove(move);
+            long subtree = count(board, depth - 1, mode, table, lists, stats, budget);
+            board.takeBack(move);
+            callback.accept(new DivideResult(Move.of(move), subtree, System.nanoTime() - start));
+            positions += subtree;
+        }
+        return positions;
+    }
+
+    /**
+     * Perft в фоне: расчет идет в {@link PerftOptions#executor} по ходам из корня, доска копируется при вызове.
+     * <p>
+     * {@code future.cancel(...)}, ограничение по времени или по узлам останавливают счет не позже чем через
+     * 4096 узлов: рекурсия проверяет их по счетчику, а не в каждом узле. Листья последнего полухода в BULK
+     * и COUNT_ONLY списываются со счетчика разом, по узлу не больше 218, так что с лимитом узлов счет перебирает
+     * не больше {@code nodeLimit + 4096 + 218} узлов. При исчерпании ограничения future
+     * завершается частичным результатом со статусом ограничения, отмененная future, как любая отмененная,
+     * отдает {@link java.util.concurrent.CancellationException}. Ошибки счета завершают future исключением.
+     * Узлы считаются так же, как в {@link PerftStats}: все вызовы рекурсии плюс листья, посчитанные без хода.
+     */
+    public static CompletableFuture<PerftResult> calculateAsync(ChessBoard board, int depth, PerftOptions options) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Глубина должна быть положительной: " + depth);
+        }
+        ChessBoard copy = board.copy();
+        CompletableFuture<PerftResult> future = new CompletableFuture<>();
+        options.executor.execute(() -> {
+            long start = System.nanoTime();
+            Budget budget = new Budget(future, start, options);
+            List<DivideResult> divide = new ArrayList<>();
+            PerftResult.Status status = PerftResult.Status.COMPLETE;
+            try {
+                divide(copy, depth, options.mode, options.cache, result -> {
+                    divide.add(result);
+                    if (options.progress != null) {
+                        options.progress.accept(result(PerftResult.Status.RUNNING, depth, divide, budget, start));
+                    }
+                }, budget);
+            } catch (BudgetExceeded e) {
+                status = e.status;
+            } catch (RuntimeException | Error e) {
+                future.completeExceptionally(e);
+                return;
+            }
+            future.complete(result(status, depth, divide, budget, start));
+        });
+        return future;
+    }
+
+    private static PerftResult result(PerftResult.Status status, int depth, List<DivideResult> divide,
+                                      Budget budget, long start) {
+        long leaves = 0;
+        for (DivideResult result : divide) {
+            leaves += result.count;
+        }
+        return new PerftResult(status, depth, leaves, budget.nodes, System.nanoTime() - start,
+                Collections.unmodifiableList(new ArrayList<>(divide)), budget.rootMoves);
+    }
+
+    /**
+     * Ограничения асинхронного счета. Узлы считаются в каждом узле, а время, лимит узлов и отмена
+     * проверяются не реже раза в {@link #CHECK_INTERVAL} узлов, чтобы не читать часы и volatile на каждом шаге.
+     */
+    private static final class Budget {
+
+        static final int CHECK_INTERVAL = 4096;
 
+        private final CompletableFuture<?> future;
+
+        private final long deadline;
+
+        private final long nodeLimit;
+
+        long nodes;
+
+        int countdown = CHECK_INTERVAL;
+
+        int rootMoves;
+
+        Budget(CompletableFuture<?> future, long start, PerftOptions options) {
+            this.future = future;
+            this.deadline = options.timeLimitMillis == 0 ? Long.MAX_VALUE
+                    : start + options.timeLimitMillis * 1_000_000;
+            this.nodeLimit = options.nodeLimit == 0 ? Long.MAX_VALUE : options.nodeLimit;
+        }
+
+        /**
+         * Списывает листья, посчитанные без хода: они узлы наравне с вызовами рекурсии.
+         */
+        void add(long leaves) {
+            nodes += leaves;
+            countdown -= leaves;
+            if (countdown <= 0) {
+                check();
+            }
+        }
+
+        void check() {
+            countdown = CHECK_INTERVAL;
+            if (future.isCancelled() || Thread.currentThread().isInterrupted()) {
+                throw new BudgetExceeded(PerftResult.Status.CANCELLED);
+            }
+            if (nodes >= nodeLimit) {
+                throw new BudgetExceeded(PerftResult.Status.NODE_LIMIT);
+            }
+            if (System.nanoTime() - deadline >= 0 && deadline != Long.MAX_VALUE) {
+                throw new BudgetExceeded(PerftResult.Status.TIME_LIMIT);
+            }
+        }
+    }
+
+    /**
+     * Раскручивает рекурсию при исчерпании ограничения. Без стека: он не нужен и дорог.
+     */
+    private static final class BudgetExceeded extends RuntimeException {
+
+        final PerftResult.Status status;
+
+        BudgetExceeded(PerftResult.Status status) {
+            super(status.name(), null, false, false);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @return по списку ходов на каждый полуход до глубины {@code depth}
+     */
+    public static MoveList[] newMoveLists(int depth) {
+        MoveList[] lists = new MoveList[Math.max(depth, 0) + 1];
+        for (int i = 0; i < lists.length; i++) {
+            lists[i] = new MoveList();
+        }
+        return lists;
+    }
+
+    /**
+     * @param table кеш поддеревьев или {@code null}
+     * @param stats  счетчики потока, если {@link PerftStats#ENABLED}
+     * @param budget ограничения асинхронного счета или {@code null}
+     */
+    private static long count(ChessBoard board, int depth, Mode mode, PerftCache table, MoveList[] lists,
+                              PerftStats.Counters stats, Budget budget) {
+
+        if (PerftStats.ENABLED) {
+            stats.node(depth);
+        }
+        if (budget != null) {
+            budget.nodes++;
+            if (--budget.countdown <= 0) {
+                budget.check();
+            }
+        }
         if (depth == 0) {
             return 1;
         }
 
-        int positions = 0;
-        List<Move> moves = board.genAllMoves();
-        for (Move move : moves) {
-            board.makeMove(move);
+        long positions;
+        if (table != null) {
+            positions = table.probe(board.getKey(), depth);
+            if (PerftStats.ENABLED) {
+                stats.cacheProbes++;
+                if (positions >= 0) {
+                    stats.cacheHits++;
+                }
+            }
+            if (positions >= 0) {
+                return positions;
+            }
+        }
 
-            if (board.isCheck(board.getOpponentColor())) {
+        positions = 0;
+        MoveList moves = lists[depth];
+        if (depth == 1 && mode == Mode.COUNT_ONLY) {
+            positions = board.countLegalMoves();
+            if (PerftStats.ENABLED) {
+                stats.nodes[0] += positions;
+            }
+            if (budget != null) {
+                budget.add(positions);
+            }
+        } else if (depth == 1 && mode == Mode.BULK) {
+            board.genLegalMoves(moves);
+            positions = moves.size();
+            if (PerftStats.ENABLED) {
+                stats.nodes[0] += positions;
+            }
+            if (budget != null) {
+                budget.add(positions);
+            }
+        } else if (mode != Mode.PSEUDO_LEGAL) {
+            board.genLegalMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                board.makeMove(move);
+                positions += count(board, depth - 1, mode, table, lists, stats, budget);
                 board.takeBack(move);
-                continue;
             }
+        } else {
+            board.genAllMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                board.makeMove(move);
 
-            positions += calculate(board, depth - 1);
+                if (board.isCheck(board.getOpponentColor())) {
+                    if (PerftStats.ENABLED) {
+                        stats.illegal++;
+                    }
+                    board.takeBack(move);
+                    continue;
+                }
 
-            board.takeBack(move);
+                positions += count(board, depth - 1, mode, table, lists, stats, budget);
+
+                board.takeBack(move);
+            }
         }
 
+        if (table != null) {
+            table.store(board.getKey(), depth, positions);
+        }
         return positions;
     }
 }
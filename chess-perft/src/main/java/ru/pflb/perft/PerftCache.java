@@ -0,0 +1,16 @@
+package ru.pflb.perft;
+
+/**
+ * Кеш числа листьев поддерева по ключу позиции и оставшейся глубине.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public interface PerftCache {
+
+    /**
+     * @return число листьев, сохраненное для позиции и глубины, либо -1, если записи нет
+     */
+    long probe(long key, int depth);
+
+    void store(long key, int depth, long count);
+}
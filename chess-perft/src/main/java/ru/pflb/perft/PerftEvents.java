@@ -0,0 +1,90 @@
+package ru.pflb.perft;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * События JFR perft. Пишутся, только если включены {@link PerftStats#ENABLED} и запись JFR,
+ * например {@code -Dperft.stats=true -XX:StartFlightRecording=filename=perft.jfr}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class PerftEvents {
+
+    private PerftEvents() {
+    }
+
+    @Name("ru.pflb.perft.Count")
+    @Label("Perft")
+    @Category("Perft")
+    @StackTrace(false)
+    public static class Count extends Event {
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Leaves")
+        long leaves;
+    }
+
+    @Name("ru.pflb.perft.Progress")
+    @Label("Perft Progress")
+    @Category("Perft")
+    @StackTrace(false)
+    public static class Progress extends Event {
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Nodes per Second")
+        long nodesPerSecond;
+
+        @Label("Illegal Moves")
+        long illegalMoves;
+
+        @Label("Cache Probes")
+        long cacheProbes;
+
+        @Label("Cache Hits")
+        long cacheHits;
+    }
+
+    /**
+     * @return начатое событие или {@code null}, если события не пишутся
+     */
+    static Count countStarted(int depth, Perft.Mode mode) {
+        Count event = new Count();
+        if (!event.isEnabled()) {
+            return null;
+        }
+        event.depth = depth;
+        event.mode = mode.name();
+        event.begin();
+        return event;
+    }
+
+    static void countFinished(Count event, long leaves) {
+        if (event != null) {
+            event.leaves = leaves;
+            event.commit();
+        }
+    }
+
+    static void progress(PerftStats.Snapshot snapshot) {
+        Progress event = new Progress();
+        if (event.isEnabled()) {
+            event.nodes = snapshot.nodes;
+            event.nodesPerSecond = snapshot.nodesPerSecond;
+            event.illegalMoves = snapshot.illegalMoves;
+            event.cacheProbes = snapshot.cacheProbes;
+            event.cacheHits = snapshot.cacheHits;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package ru.pflb.perft;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Долгий perft с сохранением прогресса: корень делится на поддеревья ходов, и число листьев каждого досчитанного
+ * поддерева дописывается строкой в журнал. После падения или перезапуска тот же запуск с тем же журналом
+ * пропускает поддеревья из журнала и досчитывает остальные, итог и divide совпадают с непрерывным счетом.
+ * <p>
+ * Журнал текстовый:
+ * <pre>
+ * perft key=&lt;ключ Зобриста корня&gt; depth=&lt;глубина&gt;
+ * &lt;ход в упаковке Moves&gt; &lt;листьев&gt; &lt;наносекунд&gt; &lt;ход для чтения&gt;
+ * ...
+ * </pre>
+ * Строка без перевода строки в конце (запись оборвалась на падении) не учитывается.
+ * Журнал другой позиции или глубины не принимается.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftJob {
+
+    /**
+     * Когда сбрасывать журнал на диск.
+     */
+    public enum Fsync {
+        /**
+         * После каждой записи: при падении машины теряется только поддерево, которое считалось.
+         */
+        EVERY_RECORD,
+        /**
+         * Не чаще раза в секунду: на неглубоких поддеревьях меньше ожидания диска, теряется до секунды записей.
+         */
+        EVERY_SECOND,
+        /**
+         * Сбрасывает операционная система: переживает падение JVM, но не машины.
+         */
+        NEVER
+    }
+
+    private final Path journal;
+
+    private final Fsync fsync;
+
+    private final int threads;
+
+    private FileChannel channel;
+
+    private long lastSync;
+
+    private int resumed;
+
+    public PerftJob(Path journal, Fsync fsync, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + threads);
+        }
+        this.journal = journal;
+        this.fsync = fsync;
+        this.threads = threads;
+    }
+
+    /**
+     * Считает perft, продолжая с журнала, если он есть. {@code callback} получает результат каждого хода из корня:
+     * сначала взятые из журнала, затем посчитанные, по мере готовности. Вызовы сериализованы.
+     *
+     * @return divide по всем ходам в порядке генерации; сумма - итог perft
+     */
+    public List<DivideResult> run(ChessBoard board, int depth, Consumer<DivideResult> callback) throws IOException {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Глубина должна быть положительной: " + depth);
+        }
+        String header = "perft key=" + Long.toHexString(board.getKey()) + " depth=" + depth;
+        Map<Integer, DivideResult> done = readJournal(header);
+        resumed = done.size();
+
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        Map<Integer, Integer> order = new HashMap<>();
+        for (int i = 0; i < moves.size(); i++) {
+            order.put(moves.get(i), i);
+        }
+        for (DivideResult result : done.values()) {
+            if (!order.containsKey(result.move.toInt())) {
+                throw new IllegalStateException("В журнале ход, которого нет в позиции: " + result.move);
+            }
+            callback.accept(result);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        try {
+            if (channel.size() == 0) {
+                append(header + "\n", true);
+            }
+            List<Future<DivideResult>> futures = new ArrayList<>();
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                if (done.containsKey(move)) {
+                    continue;
+                }
+                ChessBoard child = board.copy();
+                child.makeMove(move);
+                futures.add(executor.submit(() -> {
+                    long start = System.nanoTime();
+                    long count = Perft.count(child, depth - 1);
+                    DivideResult result = new DivideResult(Move.of(move), count, System.nanoTime() - start);
+                    record(result, callback);
+                    return result;
+                }));
+            }
+            for (Future<DivideResult> future : futures) {
+                DivideResult result = future.get();
+                done.put(result.move.toInt(), result);
+            }
+            channel.force(false);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Счет прерван, досчитанные поддеревья сохранены в " + journal, e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Ошибка счета поддерева", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            channel.close();
+        }
+
+        List<DivideResult> results = new ArrayList<>(done.values());
+        results.sort(Comparator.comparingInt(r -> order.get(r.move.toInt())));
+        return results;
+    }
+
+    /**
+     * @return сколько поддеревьев последний {@link #run} взял из журнала, а не посчитал
+     */
+    public int getResumed() {
+        return resumed;
+    }
+
+    private synchronized void record(DivideResult result, Consumer<DivideResult> callback) throws IOException {
+        long now = System.nanoTime();
+        boolean force = fsync == Fsync.EVERY_RECORD
+                || fsync == Fsync.EVERY_SECOND && now - lastSync >= 1_000_000_000L;
+        append(result.move.toInt() + " " + result.count + " " + result.nanos + " " + result.move + "\n", force);
+        if (force) {
+            lastSync = now;
+        }
+        callback.accept(result);
+    }
+
+    private void append(String line, boolean force) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    private Map<Integer, DivideResult> readJournal(String header) throws IOException {
+        Map<Integer, DivideResult> done = new HashMap<>();
+        if (!Files.exists(journal)) {
+            return done;
+        }
+        byte[] content = Files.readAllBytes(journal);
+        int complete = content.length;
+        while (complete > 0 && content[complete - 1] != '\n') {
+            complete--;
+        }
+        // оборванная последняя строка отбрасывается, следующие записи пойдут вслед за целыми
+        if (complete < content.length) {
+            try (FileChannel truncate = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+                truncate.truncate(complete);
+            }
+        }
+        if (complete == 0) {
+            return done;
+        }
+        String[] lines = new String(content, 0, complete, StandardCharsets.UTF_8).split("\n");
+        if (!lines[0].equals(header)) {
+            throw new IllegalStateException("Журнал " + journal + " от другого счета: " + lines[0]
+                    + ", ожидалось " + header);
+        }
+        for (int i = 1; i < lines.length; i++) {
+            String[] fields = lines[i].split(" ", 4);
+            int move = Integer.parseInt(fields[0]);
+            done.put(move, new DivideResult(Move.of(move), Long.parseLong(fields[1]), Long.parseLong(fields[2])));
+        }
+        return done;
+    }
+
+    /**
+     * {@code PerftJob <FEN> <глубина> <журнал> [потоков]}: печатает divide и итог. Прерванный счет продолжается
+     * повторным запуском с теми же аргументами.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Использование: PerftJob <FEN> <глубина> <журнал> [потоков]");
+            System.exit(2);
+        }
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        PerftJob job = new PerftJob(Paths.get(args[2]), Fsync.EVERY_RECORD, threads);
+        List<DivideResult> results = job.run(new Board(args[0]), Integer.parseInt(args[1]), System.out::println);
+        long total = 0;
+        for (DivideResult result : results) {
+            total += result.count;
+        }
+        System.out.println("Итого " + total + " (из журнала " + job.getResumed() + " из " + results.size() + ")");
+    }
+}
@@ -0,0 +1,82 @@
+package ru.pflb.perft;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Параметры {@link Perft#calculateAsync(ChessBoard, int, PerftOptions)}. Объект неизменяемый:
+ * каждый {@code with*} возвращает копию, начинать удобно с {@link #DEFAULT}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class PerftOptions {
+
+    /**
+     * {@link Perft#DEFAULT_MODE}, без кеша и ограничений, в {@link ForkJoinPool#commonPool()}.
+     */
+    public static final PerftOptions DEFAULT = new PerftOptions(Perft.DEFAULT_MODE, null, 0, 0, null,
+            ForkJoinPool.commonPool());
+
+    public final Perft.Mode mode;
+
+    public final PerftCache cache;
+
+    /**
+     * Ограничение по времени в миллисекундах, 0 - без ограничения.
+     */
+    public final long timeLimitMillis;
+
+    /**
+     * Ограничение по числу посещенных узлов, 0 - без ограничения.
+     */
+    public final long nodeLimit;
+
+    public final Consumer<PerftResult> progress;
+
+    public final Executor executor;
+
+    private PerftOptions(Perft.Mode mode, PerftCache cache, long timeLimitMillis, long nodeLimit,
+                         Consumer<PerftResult> progress, Executor executor) {
+        if (timeLimitMillis < 0 || nodeLimit < 0) {
+            throw new IllegalArgumentException("Ограничения не могут быть отрицательными: " + timeLimitMillis
+                    + " мс, " + nodeLimit + " узлов");
+        }
+        this.mode = mode;
+        this.cache = cache;
+        this.timeLimitMillis = timeLimitMillis;
+        this.nodeLimit = nodeLimit;
+        this.progress = progress;
+        this.executor = executor;
+    }
+
+    public PerftOptions withMode(Perft.Mode mode) {
+        return new PerftOptions(mode, cache, timeLimitMillis, nodeLimit, progress, executor);
+    }
+
+    /**
+     * @param cache кеш поддеревьев; расчеты, идущие одновременно, могут делить только потокобезопасный кеш
+     */
+    public PerftOptions withCache(PerftCache cache) {
+        return new PerftOptions(mode, cache, timeLimitMillis, nodeLimit, progress, executor);
+    }
+
+    public PerftOptions withTimeLimit(long millis) {
+        return new PerftOptions(mode, cache, millis, nodeLimit, progress, executor);
+    }
+
+    public PerftOptions withNodeLimit(long nodes) {
+        return new PerftOptions(mode, cache, timeLimitMillis, nodes, progress, executor);
+    }
+
+    /**
+     * @param progress получает промежуточный результат после каждого досчитанного хода из корня
+     */
+    public PerftOptions withProgress(Consumer<PerftResult> progress) {
+        return new PerftOptions(mode, cache, timeLimitMillis, nodeLimit, progress, executor);
+    }
+
+    public PerftOptions withExecutor(Executor executor) {
+        return new PerftOptions(mode, cache, timeLimitMillis, nodeLimit, progress, executor);
+    }
+}
@@ -0,0 +1,74 @@
+package ru.pflb.perft;
+
+import java.util.List;
+
+/**
+ * Результат {@link Perft#calculateAsync(ChessBoard, int, PerftOptions)}, полный или частичный.
+ * Частичный содержит divide по ходам из корня, досчитанным до остановки: их числа точные,
+ * а {@link #leaves} - их сумма, нижняя граница настоящего perft.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftResult {
+
+    public enum Status {
+        /**
+         * Посчитано полностью, {@link #leaves} - perft позиции.
+         */
+        COMPLETE,
+        /**
+         * Счет в работе: промежуточный результат для отчета о прогрессе.
+         */
+        RUNNING,
+        TIME_LIMIT,
+        NODE_LIMIT,
+        CANCELLED
+    }
+
+    public final Status status;
+
+    public final int depth;
+
+    /**
+     * Сумма поддеревьев досчитанных ходов из корня.
+     */
+    public final long leaves;
+
+    /**
+     * Всего посещено узлов, включая недосчитанное поддерево.
+     */
+    public final long nodes;
+
+    public final long nanos;
+
+    /**
+     * Досчитанные ходы из корня в порядке генерации.
+     */
+    public final List<DivideResult> divide;
+
+    /**
+     * Сколько всего ходов из корня.
+     */
+    public final int rootMoves;
+
+    public PerftResult(Status status, int depth, long leaves, long nodes, long nanos, List<DivideResult> divide,
+                       int rootMoves) {
+        this.status = status;
+        this.depth = depth;
+        this.leaves = leaves;
+        this.nodes = nodes;
+        this.nanos = nanos;
+        this.divide = divide;
+        this.rootMoves = rootMoves;
+    }
+
+    public boolean isComplete() {
+        return status == Status.COMPLETE;
+    }
+
+    @Override
+    public String toString() {
+        return "PerftResult{" + status + ", depth=" + depth + ", leaves=" + leaves + ", nodes=" + nodes
+                + ", moves=" + divide.size() + "/" + rootMoves + ", " + nanos / 1_000_000 + " ms}";
+    }
+}
@@ -0,0 +1,296 @@
+package ru.pflb.perft;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Счетчики perft: узлы по глубинам и потокам, сгенерированные псевдоходы по видам фигур, отброшенные
+ * {@link ChessBoard#isCheck(Color)} нелегальные ходы, обращения к кешу и попадания.
+ * <p>
+ * Включаются {@code -Dperft.stats=true}. Флаг {@link #ENABLED} статический и финальный, как
+ * {@code perft.debugHash} у {@link Board}: без него JIT вырезает все обращения к счетчикам, и
+ * perft работает с той же скоростью, что и без инструментирования.
+ * <p>
+ * У каждого потока свои счетчики без синхронизации, {@link #snapshot()} суммирует их на ходу, поэтому
+ * снимок приблизителен на величину узлов, посчитанных за время его сборки. Снимки доступны также через JMX
+ * ({@link #registerMBean()}, {@code ru.pflb.perft:type=PerftStats}), периодически через {@link #startReporter}
+ * и событиями JFR {@link PerftEvents}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class PerftStats {
+
+    public static final boolean ENABLED = Boolean.getBoolean("perft.stats");
+
+    /**
+     * Глубины больше этой считаются вместе с ней.
+     */
+    public static final int MAX_DEPTH = 32;
+
+    private static final long START = System.nanoTime();
+
+    private static final Queue<Counters> ALL = new ConcurrentLinkedQueue<>();
+
+    private static final ThreadLocal<Counters> LOCAL = ThreadLocal.withInitial(() -> {
+        Counters counters = new Counters(Thread.currentThread());
+        ALL.add(counters);
+        return counters;
+    });
+
+    // Счетчики завершившихся потоков: пулы ParallelPerft живут один расчет, и список не должен расти бесконечно.
+    private static final Counters RETIRED = new Counters(null);
+
+    private static volatile Snapshot last;
+
+    private PerftStats() {
+    }
+
+    /**
+     * Счетчики одного потока. Пишет в них только свой поток.
+     */
+    static final class Counters {
+
+        final Thread thread;
+
+        /**
+         * Узлы по оставшейся глубине: nodes[0] - листья.
+         */
+        final long[] nodes = new long[MAX_DEPTH + 1];
+
+        /**
+         * Псевдоходы по {@link Piece#code}.
+         */
+        final long[] moves = new long[12];
+
+        long illegal, cacheProbes, cacheHits;
+
+        Counters(Thread thread) {
+            this.thread = thread;
+        }
+
+        void node(int depth) {
+            nodes[Math.min(depth, MAX_DEPTH)]++;
+        }
+
+        void addTo(Counters total) {
+            for (int i = 0; i < nodes.length; i++) {
+                total.nodes[i] += nodes[i];
+            }
+            for (int i = 0; i < moves.length; i++) {
+                total.moves[i] += moves[i];
+            }
+            total.illegal += illegal;
+            total.cacheProbes += cacheProbes;
+            total.cacheHits += cacheHits;
+        }
+
+        long totalNodes() {
+            long total = 0;
+            for (long n : nodes) {
+                total += n;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * @return счетчики текущего потока; вызывать только под {@code if (ENABLED)}
+     */
+    static Counters counters() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Учитывает сгенерированные псевдоходы по видам фигур.
+     */
+    static void countMoves(MoveList moves) {
+        long[] byPiece = LOCAL.get().moves;
+        for (int i = 0; i < moves.size(); i++) {
+            byPiece[Moves.piece(moves.get(i)).code]++;
+        }
+    }
+
+    /**
+     * Снимок со скоростями, посчитанными от начала работы JVM.
+     */
+    public static Snapshot snapshot() {
+        return snapshot(null);
+    }
+
+    private static synchronized Snapshot snapshot(Snapshot previous) {
+        Counters total = new Counters(null);
+        Map<String, Long> byThread = new LinkedHashMap<>();
+        for (Iterator<Counters> it = ALL.iterator(); it.hasNext(); ) {
+            Counters counters = it.next();
+            if (!counters.thread.isAlive()) {
+                counters.addTo(RETIRED);
+                it.remove();
+                continue;
+            }
+            counters.addTo(total);
+            byThread.merge(counters.thread.getName(), counters.totalNodes(), Long::sum);
+        }
+        RETIRED.addTo(total);
+        Snapshot snapshot = new Snapshot(System.nanoTime(), total, byThread, previous);
+        last = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Каждые {@code periodMillis} снимает {@link Snapshot} со скоростями за прошедший период, отдает его
+     * {@code listener} и пишет событие JFR {@link PerftEvents.Progress}.
+     *
+     * @return закрытие останавливает отчеты
+     */
+    public static Closeable startReporter(long periodMillis, Consumer<Snapshot> listener) {
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "perft-stats");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Snapshot[] previous = {snapshot()};
+        executor.scheduleAtFixedRate(() -> {
+            Snapshot snapshot = snapshot(previous[0]);
+            previous[0] = snapshot;
+            PerftEvents.progress(snapshot);
+            listener.accept(snapshot);
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return executor::shutdownNow;
+    }
+
+    /**
+     * Регистрирует {@link PerftStatsMXBean} в платформенном MBean-сервере, повторная регистрация ничего не делает.
+     */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new PerftStatsMXBean() {
+                @Override
+                public Snapshot getSnapshot() {
+                    Snapshot snapshot = last;
+                    return snapshot != null ? snapshot : snapshot();
+                }
+
+                @Override
+                public long getNodes() {
+                    return snapshot().nodes;
+                }
+            }, new ObjectName(PerftStatsMXBean.NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // уже зарегистрирован
+        } catch (JMException e) {
+            throw new IllegalStateException("Не удалось зарегистрировать " + PerftStatsMXBean.NAME, e);
+        }
+    }
+
+    /**
+     * Сумма счетчиков всех потоков на момент снимка и скорости за период с предыдущего снимка.
+     */
+    public static final class Snapshot {
+
+        public final long timeNanos;
+
+        public final long nodes;
+
+        public final long[] nodesByDepth;
+
+        public final Map<String, Long> nodesByThread;
+
+        public final Map<String, Long> movesByPiece;
+
+        public final long illegalMoves, cacheProbes, cacheHits;
+
+        public final long nodesPerSecond;
+
+        public final long[] nodesPerSecondByDepth;
+
+        public final Map<String, Long> nodesPerSecondByThread;
+
+        Snapshot(long timeNanos, Counters total, Map<String, Long> nodesByThread, Snapshot previous) {
+            this.timeNanos = timeNanos;
+            this.nodes = total.totalNodes();
+            this.nodesByDepth = total.nodes;
+            this.nodesByThread = nodesByThread;
+            this.movesByPiece = new LinkedHashMap<>();
+            for (int code = 1; code < total.moves.length; code++) {
+                if (code != 6) {
+                    movesByPiece.put(Piece.byCode(code).name(), total.moves[code]);
+                }
+            }
+            this.illegalMoves = total.illegal;
+            this.cacheProbes = total.cacheProbes;
+            this.cacheHits = total.cacheHits;
+
+            long since = previous == null ? START : previous.timeNanos;
+            double seconds = Math.max(timeNanos - since, 1) / 1e9;
+            this.nodesPerSecond = (long) ((nodes - (previous == null ? 0 : previous.nodes)) / seconds);
+            this.nodesPerSecondByDepth = new long[nodesByDepth.length];
+            for (int depth = 0; depth < nodesByDepth.length; depth++) {
+                long before = previous == null ? 0 : previous.nodesByDepth[depth];
+                nodesPerSecondByDepth[depth] = (long) ((nodesByDepth[depth] - before) / seconds);
+            }
+            this.nodesPerSecondByThread = new LinkedHashMap<>();
+            for (Map.Entry<String, Long> thread : nodesByThread.entrySet()) {
+                long before = previous == null ? 0 : previous.nodesByThread.getOrDefault(thread.getKey(), 0L);
+                nodesPerSecondByThread.put(thread.getKey(), (long) ((thread.getValue() - before) / seconds));
+            }
+        }
+
+        public long getNodes() {
+            return nodes;
+        }
+
+        public long[] getNodesByDepth() {
+            return nodesByDepth;
+        }
+
+        public Map<String, Long> getNodesByThread() {
+            return nodesByThread;
+        }
+
+        public Map<String, Long> getMovesByPiece() {
+            return movesByPiece;
+        }
+
+        public long getIllegalMoves() {
+            return illegalMoves;
+        }
+
+        public long getCacheProbes() {
+            return cacheProbes;
+        }
+
+        public long getCacheHits() {
+            return cacheHits;
+        }
+
+        public long getNodesPerSecond() {
+            return nodesPerSecond;
+        }
+
+        public long[] getNodesPerSecondByDepth() {
+            return nodesPerSecondByDepth;
+        }
+
+        public Map<String, Long> getNodesPerSecondByThread() {
+            return nodesPerSecondByThread;
+        }
+
+        @Override
+        public String toString() {
+            return "nodes=" + nodes + " nps=" + nodesPerSecond + " illegal=" + illegalMoves
+                    + " cache=" + cacheHits + "/" + cacheProbes + " threads=" + nodesPerSecondByThread;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.pflb.perft;
+
+/**
+ * Счетчики {@link PerftStats} в JMX. {@link #getSnapshot()} - последний снимок периодического отчета
+ * со скоростями за его период, либо, если отчет не запущен, свежий снимок со скоростями от старта JVM.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public interface PerftStatsMXBean {
+
+    String NAME = "ru.pflb.perft:type=PerftStats";
+
+    PerftStats.Snapshot getSnapshot();
+
+    /**
+     * @return число узлов на момент вызова
+     */
+    long getNodes();
+}
@@ -22,6 +22,17 @@ public enum Piece {
 
     public final byte code;
 
+    // Фигуры по коду, нужны для распаковки ходов из int.
+    private static final Piece[] BY_CODE = new Piece[12];
+
+    static {
+        for (Piece piece : values()) {
+            if (piece != OUT) {
+                BY_CODE[piece.code] = piece;
+            }
+        }
+    }
+
     Piece(byte pieceType, Color color) {
         this((byte)(color.code * 6 + pieceType + 1));
     }
@@ -30,6 +41,13 @@ public enum Piece {
         this.code = code;
     }
 
+    /**
+     * @return фигура с данным {@link #code}, для 0 - {@link #EMP}
+     */
+    public static Piece byCode(int code) {
+        return BY_CODE[code];
+    }
+
     public Color getColor() {
         return code <= 6 ? WHITE : BLACK;
     }
@@ -0,0 +1,227 @@
+package ru.pflb.perft;
+
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Ленивый обход позиций ровно через {@code depth} полуходов для {@link Perft#positions(ChessBoard, int)}.
+ * <p>
+ * Вместо рекурсии - явный стек: на каждый полуход свой {@link MoveList} и индекс следующего хода, и
+ * {@link #tryAdvance} продолжает обход с того места, где остановился в прошлый раз. Память - стек глубиной
+ * {@code depth} и одна доска, сколько бы позиций ни было в дереве.
+ * <p>
+ * Позиция отдается одним и тем же объектом {@link Leaf} - легковесом над доской обхода: он действителен только
+ * внутри вызова действия. Чтобы сохранить позицию, нужно взять из него копию: {@link Leaf#copyBoard()},
+ * {@link Leaf#path()} или 32 байта {@link Leaf#writeTo(ByteBuffer, int)}. Операции потока, которые копят
+ * элементы ({@code sorted}, {@code collect}, {@code limit} в параллельном потоке), получают легковес уже после
+ * того, как обход ушел дальше, поэтому перед ними нужен {@code map} в копию.
+ * <p>
+ * {@link #trySplit()} отдает несделанные ходы самого верхнего уровня стека, где они еще есть, вместе с копией
+ * доски на этом уровне: параллельный поток делит дерево по поддеревьям. Отдаются последние ходы уровня, а не
+ * первые, поэтому порядок обхода при разбиении не сохраняется, и {@link #ORDERED} не заявлен.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PositionSpliterator implements Spliterator<PositionSpliterator.Leaf> {
+
+    private final ChessBoard board;
+
+    private final int depth;
+
+    /**
+     * Ходы от корня потока до корня этого обхода: у отделенных {@link #trySplit()} частей он не пустой.
+     */
+    private final int[] prefix;
+
+    /**
+     * {@code moves[p]} - ходы позиции после {@code p} полуходов от корня обхода, {@code next[p]} - индекс
+     * следующего несделанного хода, {@code end[p]} - граница ходов этого обхода; ходы за ней отданы другим частям.
+     * На доске сделаны ходы {@code moves[q].get(next[q] - 1)} для всех {@code q < ply}.
+     */
+    private final MoveList[] moves;
+
+    private final int[] next, end;
+
+    private int ply;
+
+    private boolean started, finished;
+
+    private final Leaf leaf = new Leaf();
+
+    /**
+     * @param board доска, которую обход будет менять; после полного обхода она возвращается в исходную позицию
+     */
+    public PositionSpliterator(ChessBoard board, int depth) {
+        this(board, depth, new int[0]);
+    }
+
+    private PositionSpliterator(ChessBoard board, int depth, int[] prefix) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Глубина не может быть отрицательной: " + depth);
+        }
+        this.board = board;
+        this.depth = depth;
+        this.prefix = prefix;
+        this.moves = new MoveList[Math.max(depth, 1)];
+        for (int p = 0; p < moves.length; p++) {
+            moves[p] = new MoveList();
+        }
+        this.next = new int[moves.length];
+        this.end = new int[moves.length];
+    }
+
+    private void start() {
+        if (!started) {
+            started = true;
+            if (depth > 0) {
+                board.genLegalMoves(moves[0]);
+                end[0] = moves[0].size();
+            }
+        }
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Leaf> action) {
+        if (finished) {
+            return false;
+        }
+        start();
+        if (depth == 0) {
+            finished = true;
+            action.accept(leaf);
+            return true;
+        }
+        while (true) {
+            if (next[ply] == end[ply]) {
+                // уровень исчерпан: возвращаемся на полуход выше
+                if (ply == 0) {
+                    finished = true;
+                    return false;
+                }
+                ply--;
+                board.takeBack(moves[ply].get(next[ply] - 1));
+                continue;
+            }
+            int move = moves[ply].get(next[ply]++);
+            board.makeMove(move);
+            if (ply == depth - 1) {
+                action.accept(leaf);
+                board.takeBack(move);
+                return true;
+            }
+            ply++;
+            board.genLegalMoves(moves[ply]);
+            next[ply] = 0;
+            end[ply] = moves[ply].size();
+        }
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Leaf> action) {
+        while (tryAdvance(action)) {
+            // весь обход внутри tryAdvance
+        }
+    }
+
+    /**
+     * Отдает ходы самого верхнего уровня стека, где остались несделанные: все, если на этом уровне уже есть
+     * ход в работе, иначе вторую половину.
+     */
+    @Override
+    public Spliterator<Leaf> trySplit() {
+        if (finished || depth == 0) {
+            return null;
+        }
+        start();
+        for (int p = 0; p <= ply; p++) {
+            int untried = end[p] - next[p];
+            boolean inProgress = p < ply;
+            if (untried == 0 || !inProgress && untried < 2) {
+                continue;
+            }
+            int from = inProgress ? next[p] : next[p] + untried / 2;
+
+            ChessBoard root = board.copy();
+            for (int q = ply - 1; q >= p; q--) {
+                root.takeBack(moves[q].get(next[q] - 1));
+            }
+            int[] rootPrefix = new int[prefix.length + p];
+            System.arraycopy(prefix, 0, rootPrefix, 0, prefix.length);
+            for (int q = 0; q < p; q++) {
+                rootPrefix[prefix.length + q] = moves[q].get(next[q] - 1);
+            }
+            PositionSpliterator split = new PositionSpliterator(root, depth - p, rootPrefix);
+            split.started = true;
+            for (int i = from; i < end[p]; i++) {
+                split.moves[0].add(moves[p].get(i));
+            }
+            split.end[0] = split.moves[0].size();
+            end[p] = from;
+            return split;
+        }
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        return finished ? 0 : Long.MAX_VALUE;
+    }
+
+    @Override
+    public int characteristics() {
+        return NONNULL;
+    }
+
+    /**
+     * Позиция горизонта, действительная только внутри действия потока.
+     */
+    public final class Leaf {
+
+        private Leaf() {
+        }
+
+        /**
+         * @return доска обхода в позиции горизонта; ее нельзя менять и нельзя сохранять
+         */
+        public ChessBoard board() {
+            return board;
+        }
+
+        public ChessBoard copyBoard() {
+            return board.copy();
+        }
+
+        public long getKey() {
+            return board.getKey();
+        }
+
+        /**
+         * @return ходы от корня потока до позиции в упаковке {@link Moves}, новый массив
+         */
+        public int[] path() {
+            int[] path = new int[prefix.length + depth];
+            System.arraycopy(prefix, 0, path, 0, prefix.length);
+            for (int p = 0; p < depth; p++) {
+                path[prefix.length + p] = moves[p].get(next[p] - 1);
+            }
+            return path;
+        }
+
+        /**
+         * Записывает позицию в {@link PackedPosition}, {@value PackedPosition#BYTES} байт.
+         */
+        public void writeTo(ByteBuffer buffer, int offset) {
+            PackedPosition.write(board, buffer, offset);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder();
+            for (int move : path()) {
+                text.append(text.length() == 0 ? "" : " ").append(Move.of(move));
+            }
+            return text.toString();
+        }
+    }
+}
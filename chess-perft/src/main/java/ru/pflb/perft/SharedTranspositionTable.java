@@ -0,0 +1,123 @@
+package ru.pflb.perft;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Общая для всех потоков таблица транспозиций вне кучи: слоты лежат в direct {@link ByteBuffer},
+ * поэтому таблица на гигабайты не нагружает сборщик мусора.
+ * <p>
+ * Блокировок нет. Слот - два long: {@code key ^ data} и {@code data}, где {@code data = count << 8 | depth}
+ * (<a href="https://www.chessprogramming.org/Shared_Hash_Table#Lockless">lockless hashing</a>).
+ * Если два потока пишут в слот одновременно и слова перемешались, XOR не сойдется с ключом,
+ * и запись будет прочитана как промах, а не как чужое значение.
+ * <p>
+ * Один буфер адресуется int-индексом, поэтому таблица больше гигабайта делится на буферы по 1 ГБ.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class SharedTranspositionTable implements PerftCache {
+
+    private static final int ENTRY_BYTES = 16;
+
+    private static final int CHUNK_SHIFT = 30 - 4;
+
+    private static final long DEPTH_MIX = 0x9E3779B97F4A7C15L;
+
+    private final ByteBuffer[] chunks;
+
+    private final long mask;
+
+    private final int chunkMask;
+
+    private final TranspositionTable.Replacement replacement;
+
+    private final LongAdder hits = new LongAdder(), misses = new LongAdder(), collisions = new LongAdder();
+
+    /**
+     * @param megabytes   бюджет памяти вне кучи; число слотов округляется вниз до степени двойки
+     * @param replacement политика вытеснения
+     */
+    public SharedTranspositionTable(long megabytes, TranspositionTable.Replacement replacement) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Размер таблицы должен быть положительным: " + megabytes);
+        }
+        long entries = Long.highestOneBit(megabytes * 1024 * 1024 / ENTRY_BYTES);
+        int entriesPerChunk = (int) Math.min(entries, 1L << CHUNK_SHIFT);
+        chunks = new ByteBuffer[(int) (entries / entriesPerChunk)];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = ByteBuffer.allocateDirect(entriesPerChunk * ENTRY_BYTES).order(ByteOrder.nativeOrder());
+        }
+        this.mask = entries - 1;
+        this.chunkMask = entriesPerChunk - 1;
+        this.replacement = replacement;
+    }
+
+    @Override
+    public long probe(long key, int depth) {
+        long index = index(key, depth);
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int offset = ((int) index & chunkMask) * ENTRY_BYTES;
+        long data = chunk.getLong(offset + 8);
+        long check = chunk.getLong(offset);
+        if ((check ^ data) == key && (int) (data & 0xFF) == depth && data != 0) {
+            hits.increment();
+            return data >>> 8;
+        }
+        misses.increment();
+        if (data != 0) {
+            collisions.increment();
+        }
+        return -1;
+    }
+
+    @Override
+    public void store(long key, int depth, long count) {
+        long index = index(key, depth);
+        ByteBuffer chunk = chunks[(int) (index >>> CHUNK_SHIFT)];
+        int offset = ((int) index & chunkMask) * ENTRY_BYTES;
+        if (replacement == TranspositionTable.Replacement.DEPTH_PREFERRED) {
+            long old = chunk.getLong(offset + 8);
+            if (old != 0 && (int) (old & 0xFF) > depth) {
+                return;
+            }
+        }
+        long data = count << 8 | depth;
+        chunk.putLong(offset + 8, data);
+        chunk.putLong(offset, key ^ data);
+    }
+
+    private long index(long key, int depth) {
+        return (key ^ depth * DEPTH_MIX) & mask;
+    }
+
+    public long getCapacity() {
+        return mask + 1;
+    }
+
+    public TranspositionTable.Replacement getReplacement() {
+        return replacement;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return сколько раз слот оказывался занят другой позицией, глубиной или недописанной записью
+     */
+    public long getCollisions() {
+        return collisions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "SharedTranspositionTable{capacity=" + getCapacity() + ", replacement=" + replacement
+                + ", hits=" + getHits() + ", misses=" + getMisses() + ", collisions=" + getCollisions() + '}';
+    }
+}
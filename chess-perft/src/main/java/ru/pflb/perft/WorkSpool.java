@@ -0,0 +1,218 @@
+package ru.pflb.perft;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Perft на нескольких процессах, в том числе на разных машинах с общей файловой системой.
+ * Обмен идет только через каталог-спул:
+ * <pre>
+ *  job            FEN корня, глубина, глубина разбиения, число единиц
+ *  pending/N      невзятые единицы работы: FEN, оставшаяся глубина, кратность
+ *  running/N      взятые работником
+ *  done/N         посчитанные: число листьев поддерева, время в наносекундах, кратность
+ * </pre>
+ * Координатор ({@link #split}) раскрывает дерево до глубины разбиения; позиции, совпавшие по разным путям,
+ * сливаются в одну единицу с кратностью - числом путей. Работник ({@link #work}) забирает единицу
+ * атомарным переносом {@code pending/N -> running/N}: перенос удается ровно одному процессу, остальные
+ * получают {@link NoSuchFileException} и берут следующую. Результат пишется во временный файл и тоже
+ * переносится атомарно, поэтому в {@code done} не бывает недописанных файлов. Итог собирает {@link #reduce}.
+ * <p>
+ * Единицы упавшего работника остаются в {@code running}, {@link #requeue} возвращает их в очередь.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class WorkSpool {
+
+    private final Path root, pending, running, done;
+
+    public WorkSpool(Path root) {
+        this.root = root;
+        this.pending = root.resolve("pending");
+        this.running = root.resolve("running");
+        this.done = root.resolve("done");
+    }
+
+    /**
+     * Раскладывает perft позиции {@code board} на глубину {@code depth} в единицы работы на глубине
+     * {@code splitDepth} от корня.
+     *
+     * @return число единиц
+     */
+    public int split(Board board, int depth, int splitDepth) throws IOException {
+        if (splitDepth < 1 || splitDepth >= depth) {
+            throw new IllegalArgumentException("Глубина разбиения должна быть от 1 до " + (depth - 1) + ": "
+                    + splitDepth);
+        }
+        if (Files.exists(root.resolve("job"))) {
+            throw new IllegalStateException("Спул " + root + " уже содержит задание");
+        }
+        Files.createDirectories(pending);
+        Files.createDirectories(running);
+        Files.createDirectories(done);
+
+        Map<String, Long> units = new LinkedHashMap<>();
+        expand(board.copy(), splitDepth, Perft.newMoveLists(splitDepth), units);
+        int id = 0;
+        for (Map.Entry<String, Long> unit : units.entrySet()) {
+            writeAtomically(pending.resolve(String.valueOf(id++)),
+                    unit.getKey() + "\n" + (depth - splitDepth) + "\n" + unit.getValue() + "\n");
+        }
+        // файл задания пишется последним: пока его нет, reduce не примет спул за готовый
+        writeAtomically(root.resolve("job"), board.toFen() + "\n" + depth + "\n" + splitDepth + "\n" + id + "\n");
+        return id;
+    }
+
+    private static void expand(Board board, int depth, MoveList[] lists, Map<String, Long> units) {
+        if (depth == 0) {
+            units.merge(board.toFen(), 1L, Long::sum);
+            return;
+        }
+        MoveList moves = lists[depth];
+        board.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            board.makeMove(moves.get(i));
+            expand(board, depth - 1, lists, units);
+            board.takeBack(moves.get(i));
+        }
+    }
+
+    /**
+     * Забирает и считает единицы, пока очередь не опустеет. Можно запускать сколько угодно работников
+     * в разных процессах на один спул.
+     *
+     * @return число единиц, посчитанных этим работником
+     */
+    public int work() throws IOException {
+        int counted = 0;
+        for (List<String> ids = list(pending); !ids.isEmpty(); ids = list(pending)) {
+            for (String id : ids) {
+                Path claimed = running.resolve(id);
+                try {
+                    Files.move(pending.resolve(id), claimed, StandardCopyOption.ATOMIC_MOVE);
+                } catch (NoSuchFileException e) {
+                    // единицу забрал другой работник
+                    continue;
+                }
+                List<String> unit = Files.readAllLines(claimed, StandardCharsets.UTF_8);
+                long start = System.nanoTime();
+                ChessBoard board = new BitboardBoard(new Board(unit.get(0)));
+                long count = Perft.count(board, Integer.parseInt(unit.get(1)));
+                writeAtomically(done.resolve(id),
+                        count + "\n" + (System.nanoTime() - start) + "\n" + unit.get(2) + "\n");
+                Files.delete(claimed);
+                counted++;
+            }
+        }
+        return counted;
+    }
+
+    /**
+     * Возвращает в очередь единицы, взятые, но не досчитанные: после падения работника.
+     * Вызывать, только когда ни один работник не запущен, иначе единица посчитается дважды.
+     *
+     * @return число возвращенных единиц
+     */
+    public int requeue() throws IOException {
+        int requeued = 0;
+        for (String id : list(running)) {
+            if (Files.exists(done.resolve(id))) {
+                Files.delete(running.resolve(id));
+            } else {
+                Files.move(running.resolve(id), pending.resolve(id), StandardCopyOption.ATOMIC_MOVE);
+                requeued++;
+            }
+        }
+        return requeued;
+    }
+
+    /**
+     * Суммирует результаты всех единиц с учетом кратности.
+     *
+     * @throws IllegalStateException если посчитаны не все единицы
+     */
+    public long reduce() throws IOException {
+        List<String> job = Files.readAllLines(root.resolve("job"), StandardCharsets.UTF_8);
+        int units = Integer.parseInt(job.get(3));
+        long positions = 0;
+        for (int id = 0; id < units; id++) {
+            Path result = done.resolve(String.valueOf(id));
+            if (!Files.exists(result)) {
+                throw new IllegalStateException("Единица " + id + " из " + units + " не посчитана");
+            }
+            List<String> lines = Files.readAllLines(result, StandardCharsets.UTF_8);
+            positions += Long.parseLong(lines.get(0)) * Long.parseLong(lines.get(2));
+        }
+        return positions;
+    }
+
+    private static List<String> list(Path directory) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!name.startsWith(".")) {
+                    names.add(name);
+                }
+            }
+        }
+        // работники идут по очереди в разном порядке, чтобы реже сталкиваться на одной единице
+        Collections.shuffle(names);
+        return names;
+    }
+
+    /**
+     * Пишет в уникальный временный файл с точкой в начале имени (его не видит {@link #list}) и переносит на место.
+     */
+    private static void writeAtomically(Path file, String content) throws IOException {
+        Path temp = Files.createTempFile(file.getParent(), "." + file.getFileName(), ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.delete(temp);
+            throw new IllegalStateException("Файловая система спула не поддерживает атомарный перенос", e);
+        }
+    }
+
+    /**
+     * {@code WorkSpool split <спул> <FEN> <глубина> <глубина разбиения>},
+     * {@code WorkSpool work <спул>}, {@code WorkSpool requeue <спул>}, {@code WorkSpool reduce <спул>}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Использование: WorkSpool split|work|requeue|reduce <спул> [FEN глубина разбиение]");
+            System.exit(2);
+        }
+        WorkSpool spool = new WorkSpool(Paths.get(args[1]));
+        switch (args[0]) {
+            case "split":
+                System.out.println(spool.split(new Board(args[2]), Integer.parseInt(args[3]),
+                        Integer.parseInt(args[4])) + " единиц");
+                break;
+            case "work":
+                System.out.println(spool.work() + " единиц посчитано");
+                break;
+            case "requeue":
+                System.out.println(spool.requeue() + " единиц возвращено в очередь");
+                break;
+            case "reduce":
+                System.out.println(spool.reduce());
+                break;
+            default:
+                throw new IllegalArgumentException("Неизвестная команда: " + args[0]);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.pflb.perft;
+
+import java.util.SplittableRandom;
+
+/**
+ * Таблица случайных чисел для <a href="https://www.chessprogramming.org/Zobrist_Hashing">хеширования Зобриста</a>.
+ * Ключ позиции - XOR чисел для каждой пары (фигура, поле) и числа для очереди хода черных.
+ * Генератор инициализируется константой, поэтому ключи одинаковы от запуска к запуску.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public final class Zobrist {
+
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    /**
+     * Индексируется {@link Piece#code} и индексом поля в mailbox120.
+     */
+    private static final long[][] PIECE_SQUARE = new long[12][120];
+
+    private static final long BLACK_TO_MOVE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(SEED);
+        for (long[] squares : PIECE_SQUARE) {
+            for (int square = 0; square < squares.length; square++) {
+                squares[square] = random.nextLong();
+            }
+        }
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    public static long pieceSquare(Piece piece, int square) {
+        return PIECE_SQUARE[piece.code][square];
+    }
+
+    /**
+     * @param code {@link Piece#code}
+     */
+    static long pieceSquare(int code, int square) {
+        return PIECE_SQUARE[code][square];
+    }
+
+    public static long blackToMove() {
+        return BLACK_TO_MOVE;
+    }
+}
@@ -0,0 +1,388 @@
+package ru.pflb.perft.epd;
+
+import ru.pflb.perft.Board;
+import ru.pflb.perft.BoardPool;
+import ru.pflb.perft.MoveList;
+import ru.pflb.perft.Perft;
+import ru.pflb.perft.exception.FenParseException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Прогон набора позиций в формате EPD с ожидаемыми числами perft:
+ * <pre>
+ * 4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 143 ;D3 2330
+ * </pre>
+ * Файл отображается в память целиком и разбирается побайтно, без {@code String.split} и построчного чтения.
+ * Один проход находит начала записей, дальше потоки забирают записи пачками по общему счетчику.
+ * FEN каждой записи разбирается в доску потока из {@link BoardPool}, а ходы генерируются в списки потока,
+ * так что на запись объекты не создаются.
+ * Пустые строки и строки, начинающиеся с {@code #}, пропускаются, прочие операции EPD, кроме {@code Dn}, игнорируются.
+ * <p>
+ * Отображение одним буфером ограничивает размер файла двумя гигабайтами.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class EpdSuite {
+
+    // Столько записей поток забирает за одно обращение к общему счетчику.
+    private static final int BATCH = 64;
+
+    // Глубины Dn выше этой не проверяются никогда: perft на такой глубине не досчитать.
+    // Запись с такой глубиной - ошибка разбора.
+    private static final int MAX_DEPTH = 15;
+
+    private static final int MAX_FEN_LENGTH = 128;
+
+    private final MappedByteBuffer buffer;
+
+    private final int[] recordStarts;
+
+    private final int[] recordLines;
+
+    private final int records;
+
+    private EpdSuite(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+        int limit = buffer.limit();
+        int[] starts = new int[1024];
+        int[] lines = new int[1024];
+        int count = 0;
+        int line = 1;
+        for (int pos = 0; pos < limit; line++) {
+            int start = pos;
+            while (pos < limit && buffer.get(pos) != '\n') {
+                pos++;
+            }
+            pos++;
+            int first = skipSpaces(start, Math.min(pos, limit));
+            if (first < limit && !isLineEnd(buffer.get(first)) && buffer.get(first) != '#') {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    lines = Arrays.copyOf(lines, count * 2);
+                }
+                starts[count] = first;
+                lines[count] = line;
+                count++;
+            }
+        }
+        this.recordStarts = starts;
+        this.recordLines = lines;
+        this.records = count;
+    }
+
+    public static EpdSuite open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Файл больше 2 ГБ: " + file);
+            }
+            // отображение остается действительным и после закрытия канала
+            return new EpdSuite(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * @return число записей (позиций) в файле
+     */
+    public int size() {
+        return records;
+    }
+
+    /**
+     * Проверяет все позиции и пишет в {@code out} строку на каждую непрошедшую позицию, по порядку строк файла,
+     * и итоговую строку.
+     *
+     * @param threads  число рабочих потоков
+     * @param maxDepth ожидаемые числа для глубин больше этой не проверяются
+     */
+    public Report run(int threads, int maxDepth, PrintStream out) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Число потоков должно быть положительным: " + threads);
+        }
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong passed = new AtomicLong(), checks = new AtomicLong();
+        ConcurrentLinkedQueue<Failure> failures = new ConcurrentLinkedQueue<>();
+
+        long start = System.nanoTime();
+        List<Thread> workers = new ArrayList<>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Worker(next, Math.min(maxDepth, MAX_DEPTH), passed, checks, failures),
+                    "epd-worker-" + i);
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Прогон прерван", e);
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        Failure[] sorted = failures.toArray(new Failure[0]);
+        Arrays.sort(sorted, Comparator.comparingInt(f -> f.line));
+        for (Failure failure : sorted) {
+            out.println(failure);
+        }
+        Report report = new Report(records, passed.get(), sorted.length, checks.get(), nanos);
+        out.println(report);
+        return report;
+    }
+
+    private int skipSpaces(int pos, int limit) {
+        while (pos < limit && (buffer.get(pos) == ' ' || buffer.get(pos) == '\t')) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    private class Worker implements Runnable {
+
+        private final AtomicInteger next;
+
+        private final int maxDepth;
+
+        private final AtomicLong passed, checks;
+
+        private final ConcurrentLinkedQueue<Failure> failures;
+
+        // ожидаемые числа текущей записи по глубинам, -1 - глубина не задана
+        private final long[] expected = new long[MAX_DEPTH + 1];
+
+        private final byte[] fen = new byte[MAX_FEN_LENGTH];
+
+        private final AsciiChars fenChars = new AsciiChars(fen);
+
+        private final MoveList[] moveLists = Perft.newMoveLists(MAX_DEPTH);
+
+        Worker(AtomicInteger next, int maxDepth, AtomicLong passed, AtomicLong checks,
+               ConcurrentLinkedQueue<Failure> failures) {
+            this.next = next;
+            this.maxDepth = maxDepth;
+            this.passed = passed;
+            this.checks = checks;
+            this.failures = failures;
+        }
+
+        @Override
+        public void run() {
+            for (int first; (first = next.getAndAdd(BATCH)) < records; ) {
+                for (int record = first; record < Math.min(first + BATCH, records); record++) {
+                    try {
+                        check(record);
+                    } catch (RuntimeException e) {
+                        // позиция, на которой падает генератор, - провал этой записи, а не всего потока;
+                        // в сообщение может входить доска, а отчет - по строке на запись
+                        failures.add(new Failure(recordLines[record],
+                                "ошибка счета: " + String.valueOf(e.getMessage()).replaceAll("\\s+", " ")));
+                    }
+                }
+            }
+        }
+
+        private void check(int record) {
+            int line = recordLines[record];
+            int pos = recordStarts[record];
+            int limit = buffer.limit();
+
+            int fenLength = 0;
+            while (pos < limit && buffer.get(pos) != ';' && !isLineEnd(buffer.get(pos))) {
+                if (fenLength == MAX_FEN_LENGTH) {
+                    failures.add(new Failure(line, "FEN длиннее " + MAX_FEN_LENGTH + " символов"));
+                    return;
+                }
+                fen[fenLength++] = buffer.get(pos++);
+            }
+            while (fenLength > 0 && fen[fenLength - 1] == ' ') {
+                fenLength--;
+            }
+
+            Arrays.fill(expected, -1);
+            while (pos < limit && buffer.get(pos) == ';') {
+                pos = skipSpaces(pos + 1, limit);
+                if (pos + 1 < limit && buffer.get(pos) == 'D' && isDigit(buffer.get(pos + 1))) {
+                    // числа копятся только до предела, иначе длинная запись переполнит их молча
+                    int depth = 0;
+                    for (pos++; pos < limit && isDigit(buffer.get(pos)); pos++) {
+                        depth = depth * 10 + buffer.get(pos) - '0';
+                        if (depth > MAX_DEPTH) {
+                            failures.add(new Failure(line, "ошибка разбора EPD: глубина Dn больше " + MAX_DEPTH));
+                            return;
+                        }
+                    }
+                    pos = skipSpaces(pos, limit);
+                    long count = 0;
+                    for (; pos < limit && isDigit(buffer.get(pos)); pos++) {
+                        if (count > (Long.MAX_VALUE - (buffer.get(pos) - '0')) / 10) {
+                            failures.add(new Failure(line, "ошибка разбора EPD: число D" + depth + " больше "
+                                    + Long.MAX_VALUE));
+                            return;
+                        }
+                        count = count * 10 + buffer.get(pos) - '0';
+                    }
+                    expected[depth] = count;
+                }
+                while (pos < limit && buffer.get(pos) != ';' && !isLineEnd(buffer.get(pos))) {
+                    pos++;
+                }
+            }
+
+            Board board;
+            try {
+                fenChars.length = fenLength;
+                board = BoardPool.board(fenChars);
+            } catch (FenParseException e) {
+                failures.add(new Failure(line, "ошибка разбора FEN: " + e.getMessage()));
+                return;
+            }
+            for (int depth = 1; depth <= maxDepth; depth++) {
+                if (expected[depth] < 0) {
+                    continue;
+                }
+                checks.incrementAndGet();
+                long actual = Perft.count(board, depth, Perft.DEFAULT_MODE, null, moveLists);
+                if (actual != expected[depth]) {
+                    failures.add(new Failure(line, "D" + depth + " ожидалось " + expected[depth]
+                            + ", получено " + actual));
+                    return;
+                }
+            }
+            passed.incrementAndGet();
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * Символы ASCII из переиспользуемого массива байт: FEN передается в доску без создания строки.
+     */
+    private static class AsciiChars implements CharSequence {
+
+        private final byte[] bytes;
+
+        private int length;
+
+        AsciiChars(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (bytes[index] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(bytes, start, end - start, StandardCharsets.US_ASCII);
+        }
+
+        @Override
+        public String toString() {
+            return new String(bytes, 0, length, StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static class Failure {
+
+        final int line;
+
+        final String message;
+
+        Failure(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "FAIL " + line + ": " + message;
+        }
+    }
+
+    /**
+     * Итог прогона. Позиция не прошла, если не разобралась или хоть одно число не совпало.
+     */
+    public static class Report {
+
+        public final int positions;
+
+        public final long passed;
+
+        public final long failed;
+
+        /**
+         * Сколько пар (позиция, глубина) было посчитано.
+         */
+        public final long checks;
+
+        public final long nanos;
+
+        Report(int positions, long passed, long failed, long checks, long nanos) {
+            this.positions = positions;
+            this.passed = passed;
+            this.failed = failed;
+            this.checks = checks;
+            this.nanos = nanos;
+        }
+
+        /**
+         * @return все позиции проверены и прошли; если какую-то запись не проверил ни один поток, прогон не прошел
+         */
+        public boolean isOk() {
+            return failed == 0 && passed + failed == positions;
+        }
+
+        public double positionsPerSecond() {
+            return nanos == 0 ? 0 : positions * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString() {
+            return (isOk() ? "OK" : "FAILED") + " positions=" + positions + " passed=" + passed
+                    + " failed=" + failed + " checks=" + checks + " time=" + nanos / 1_000_000 + "ms"
+                    + " positions/s=" + Math.round(positionsPerSecond());
+        }
+    }
+
+    /**
+     * {@code EpdSuite <файл.epd> [максимальная глубина, по умолчанию 4] [потоков, по умолчанию все ядра]}.
+     * Код возврата 1, если хоть одна позиция не прошла или не проверена.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Использование: EpdSuite <файл.epd> [максимальная глубина] [потоков]");
+            System.exit(2);
+        }
+        int maxDepth = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        Report report = open(Paths.get(args[0])).run(threads, maxDepth, System.out);
+        System.exit(report.isOk() ? 0 : 1);
+    }
+}
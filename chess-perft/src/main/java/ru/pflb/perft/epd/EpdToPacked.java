@@ -0,0 +1,59 @@
+package ru.pflb.perft.epd;
+
+import ru.pflb.perft.BoardPool;
+import ru.pflb.perft.PackedPositionWriter;
+import ru.pflb.perft.exception.FenParseException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Перегоняет EPD в файл {@link ru.pflb.perft.PackedPosition}:
+ * {@code EpdToPacked <файл.epd> <файл.bin>}. Ожидаемые числа {@code Dn} и прочие операции EPD отбрасываются,
+ * пустые строки и комментарии {@code #} пропускаются. Строки с неверным FEN и позиции, которые не помещаются в формат,
+ * выводятся в stderr и пропускаются.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class EpdToPacked {
+
+    /**
+     * @return число записанных позиций
+     */
+    public static long convert(Path epd, Path packed) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(epd, StandardCharsets.US_ASCII);
+             PackedPositionWriter writer = new PackedPositionWriter(packed)) {
+            int lineNumber = 0;
+            for (String line; (line = reader.readLine()) != null; ) {
+                lineNumber++;
+                int end = line.indexOf(';');
+                String fen = (end < 0 ? line : line.substring(0, end)).trim();
+                if (fen.isEmpty() || fen.charAt(0) == '#') {
+                    continue;
+                }
+                try {
+                    writer.write(BoardPool.board(fen));
+                } catch (FenParseException | IllegalArgumentException e) {
+                    // IllegalArgumentException - позиция разобралась, но в формат не помещается: больше 32 фигур
+                    System.err.println("Строка " + lineNumber + " пропущена: " + e.getMessage());
+                }
+            }
+            return writer.getCount();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Использование: EpdToPacked <файл.epd> <файл.bin>");
+            System.exit(2);
+        }
+        long millis = System.currentTimeMillis();
+        long count = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(count + " позиций, " + Files.size(Paths.get(args[1])) + " байт, "
+                + (System.currentTimeMillis() - millis) + " мс");
+    }
+}
@@ -0,0 +1,21 @@
+package ru.pflb.perft.exception;
+
+/**
+ * Ошибка в записи FEN. {@link #getOffset()} - позиция символа, на котором разбор остановился.
+ * Наследует {@link IllegalStateException}, которое доска бросала на неверный FEN раньше.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class FenParseException extends IllegalStateException {
+
+    private final int offset;
+
+    public FenParseException(String message, CharSequence fen, int offset) {
+        super(message + " в позиции " + offset + ": " + fen);
+        this.offset = offset;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+}
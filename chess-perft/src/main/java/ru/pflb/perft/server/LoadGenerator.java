@@ -0,0 +1,145 @@
+package ru.pflb.perft.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Нагрузка на {@link PerftServer}: {@code clients} потоков шлют запросы /perft по случайной позиции из
+ * {@link #FENS} и глубине от 1 до {@code maxDepth}, каждый следующий сразу после ответа на предыдущий.
+ * Позиций мало, поэтому в нагрузке есть и одинаковые запросы в полете, и попадания в кеш.
+ * Печатает пропускную способность и перцентили задержки.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class LoadGenerator {
+
+    static final String[] FENS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            "4k3/8/8/8/8/5n2/8/r3K3 w - -",
+    };
+
+    /**
+     * Задержки ответов в микросекундах, отсортированные.
+     */
+    public static final class Report {
+
+        public final long[] micros;
+
+        public final int errors;
+
+        public final long nanos;
+
+        Report(long[] micros, int errors, long nanos) {
+            this.micros = micros;
+            this.errors = errors;
+            this.nanos = nanos;
+            Arrays.sort(micros);
+        }
+
+        public long percentile(double p) {
+            if (micros.length == 0) {
+                return 0;
+            }
+            return micros[Math.min(micros.length - 1, (int) Math.ceil(p / 100 * micros.length) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d запросов, %d ошибок, %.0f запр/с, p50 %d мкс, p90 %d мкс, p99 %d мкс, "
+                            + "max %d мкс", micros.length, errors, micros.length / (nanos / 1e9),
+                    percentile(50), percentile(90), percentile(99), percentile(100));
+        }
+    }
+
+    public static Report run(String baseUrl, int clients, int requests, int maxDepth, long seed)
+            throws InterruptedException {
+        long[] micros = new long[requests];
+        AtomicInteger next = new AtomicInteger(), errors = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(seed + c);
+            Thread client = new Thread(() -> {
+                try {
+                    for (int i = next.getAndIncrement(); i < requests; i = next.getAndIncrement()) {
+                        String fen = FENS[random.nextInt(FENS.length)];
+                        int depth = 1 + random.nextInt(maxDepth);
+                        long sent = System.nanoTime();
+                        if (get(baseUrl + "/perft?fen=" + URLEncoder.encode(fen, "UTF-8") + "&depth=" + depth)
+                                != 200) {
+                            errors.incrementAndGet();
+                        }
+                        micros[i] = (System.nanoTime() - sent) / 1000;
+                    }
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                } finally {
+                    done.countDown();
+                }
+            }, "load-" + c);
+            client.setDaemon(true);
+            client.start();
+        }
+        done.await();
+        return new Report(micros, errors.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * @return HTTP-код; тело читается до конца, чтобы соединение вернулось в keep-alive
+     */
+    static int get(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        int code = connection.getResponseCode();
+        try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            if (in != null) {
+                byte[] buffer = new byte[1024];
+                while (in.read(buffer) > 0) {
+                    // ответ не нужен, только задержка
+                }
+            }
+        }
+        return code;
+    }
+
+    /**
+     * {@code LoadGenerator <url|local> [клиентов=32] [запросов=20000] [наибольшая глубина=5]};
+     * {@code local} поднимает сервер в том же процессе на свободном порту.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Использование: LoadGenerator <url|local> [клиентов] [запросов] [глубина]");
+            System.exit(2);
+        }
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20_000;
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+        PerftServer server = null;
+        String url = args[0];
+        if ("local".equals(url)) {
+            server = new PerftServer(new InetSocketAddress("127.0.0.1", 0),
+                    Runtime.getRuntime().availableProcessors(), 64, maxDepth, 60_000);
+            url = "http://127.0.0.1:" + server.getPort();
+        }
+        try {
+            System.out.println("первый прогон: " + run(url, clients, requests, maxDepth, 1));
+            System.out.println("второй прогон: " + run(url, clients, requests, maxDepth, 2));
+            if (server != null) {
+                System.out.println("расчетов " + server.getComputations() + ", объединено "
+                        + server.getCoalesced() + ", попаданий в кеш " + server.getCache().getHits());
+            }
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
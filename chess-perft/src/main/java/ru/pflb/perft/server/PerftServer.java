@@ -0,0 +1,345 @@
+package ru.pflb.perft.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ru.pflb.perft.BitboardBoard;
+import ru.pflb.perft.Board;
+import ru.pflb.perft.BoardPool;
+import ru.pflb.perft.Move;
+import ru.pflb.perft.MoveList;
+import ru.pflb.perft.Perft;
+import ru.pflb.perft.PerftOptions;
+import ru.pflb.perft.PerftResult;
+import ru.pflb.perft.exception.FenParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Встроенный HTTP-сервис perft на {@link HttpServer}:
+ * <pre>
+ *  GET /perft?fen=...&amp;depth=N   {"depth":N,"nodes":...,"source":"computed|coalesced|cache","micros":...}
+ *  GET /moves?fen=...             {"count":N,"moves":["W_KING E1-D1",...]}
+ *  GET /stats                     счетчики запросов, кеша и объединений
+ * </pre>
+ * Запросы обрабатываются на виртуальных потоках, если их дает JVM (Java 21+), иначе на кешируемом пуле:
+ * обработчик в основном ждет результата и не должен занимать поток счета. Сам perft считается в отдельном
+ * пуле {@code computeThreads} потоков, поэтому сколько бы запросов ни пришло, процессор занят не больше
+ * заданного.
+ * <p>
+ * Одинаковые запросы (ключ Зобриста позиции и глубина), пришедшие, пока первый еще считается, не запускают
+ * новый расчет, а ждут того же {@link CompletableFuture}. Посчитанные результаты хранит {@link ResultCache}.
+ * Расчет, не уложившийся в {@code timeLimitMillis}, останавливается и отдается кодом 503 без кеширования.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftServer implements Closeable {
+
+    static {
+        // Без TCP_NODELAY заголовки и тело короткого ответа уходят разными сегментами, и каждый ответ ждет
+        // отложенного ACK клиента: p50 на попаданиях в кеш 44 мс против 4.5 мс с ним. Свойство читается
+        // при первом создании HttpServer в JVM, явно заданное значение не переписывается.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService handlers, compute;
+
+    private final ResultCache cache;
+
+    private final ConcurrentHashMap<ResultCache.Key, CompletableFuture<PerftResult>> inFlight =
+            new ConcurrentHashMap<>();
+
+    private final int maxDepth;
+
+    private final PerftOptions options;
+
+    private final LongAdder requests = new LongAdder(), coalesced = new LongAdder(),
+            computations = new LongAdder(), errors = new LongAdder();
+
+    /**
+     * @param address         адрес; порт 0 - любой свободный, см. {@link #getPort()}
+     * @param computeThreads  потоков счета perft
+     * @param cacheMegabytes  память под кеш результатов
+     * @param maxDepth        наибольшая допустимая глубина запроса
+     * @param timeLimitMillis ограничение времени одного расчета, 0 - без ограничения
+     */
+    public PerftServer(InetSocketAddress address, int computeThreads, long cacheMegabytes, int maxDepth,
+                       long timeLimitMillis) throws IOException {
+        if (computeThreads < 1) {
+            throw new IllegalArgumentException("Число потоков счета должно быть положительным: " + computeThreads);
+        }
+        this.cache = new ResultCache(cacheMegabytes);
+        this.maxDepth = maxDepth;
+        this.compute = Executors.newFixedThreadPool(computeThreads, daemonThreads("perft-compute-"));
+        this.options = PerftOptions.DEFAULT.withExecutor(compute).withTimeLimit(timeLimitMillis);
+        this.handlers = handlerExecutor();
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(handlers);
+        server.createContext("/perft", exchange -> handle(exchange, this::perft));
+        server.createContext("/moves", exchange -> handle(exchange, this::moves));
+        server.createContext("/stats", exchange -> handle(exchange, query -> stats()));
+        server.start();
+    }
+
+    /**
+     * Виртуальные потоки через отражение: проект собирается под Java 8, а на 19-20 без
+     * {@code --enable-preview} метод есть, но бросает {@link UnsupportedOperationException}.
+     */
+    static ExecutorService handlerExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(daemonThreads("perft-http-"));
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String prefix) {
+        AtomicInteger number = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public ResultCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return число запущенных расчетов; меньше числа запросов на объединенные и взятые из кеша
+     */
+    public long getComputations() {
+        return computations.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        handlers.shutdownNow();
+        compute.shutdownNow();
+    }
+
+    private interface Handler {
+        String handle(Map<String, String> query) throws Exception;
+    }
+
+    /**
+     * Ответ с HTTP-кодом, отличным от 200.
+     */
+    private static final class HttpError extends Exception {
+
+        final int code;
+
+        HttpError(int code, String message) {
+            super(message, null, false, false);
+            this.code = code;
+        }
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        requests.increment();
+        int code = 200;
+        String body;
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                throw new HttpError(405, "Поддерживается только GET");
+            }
+            body = handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch (HttpError e) {
+            code = e.code;
+            body = error(e.getMessage());
+        } catch (IllegalArgumentException | FenParseException e) {
+            // в том числе NumberFormatException; прочие IllegalStateException - ошибка сервера, а не запроса
+            code = 400;
+            body = error(e.getMessage());
+        } catch (Exception e) {
+            code = 500;
+            body = error(String.valueOf(e));
+        }
+        if (code != 200) {
+            errors.increment();
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String perft(Map<String, String> query) throws Exception {
+        long start = System.nanoTime();
+        Board board = BoardPool.board(required(query, "fen"));
+        int depth = Integer.parseInt(required(query, "depth"));
+        if (depth < 1 || depth > maxDepth) {
+            throw new IllegalArgumentException("Глубина должна быть от 1 до " + maxDepth + ": " + depth);
+        }
+        ResultCache.Key key = new ResultCache.Key(board.getKey(), depth);
+
+        String source = "cache";
+        Long nodes = cache.get(key);
+        if (nodes == null) {
+            boolean[] started = new boolean[1];
+            CompletableFuture<PerftResult> future = inFlight.computeIfAbsent(key, k -> {
+                started[0] = true;
+                return new CompletableFuture<>();
+            });
+            if (started[0]) {
+                // расчет запускается вне computeIfAbsent: быстрый расчет может завершиться раньше возврата
+                // из него, а удаление ключа из того же отображения внутри computeIfAbsent запрещено
+                computations.increment();
+                Perft.calculateAsync(new BitboardBoard(board), depth, options).whenComplete((result, e) -> {
+                    if (result != null && result.isComplete()) {
+                        cache.put(key, result.leaves);
+                    }
+                    inFlight.remove(key);
+                    if (e != null) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+            }
+            if (started[0]) {
+                source = "computed";
+            } else {
+                source = "coalesced";
+                coalesced.increment();
+            }
+            PerftResult result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            if (!result.isComplete()) {
+                throw new HttpError(503, "Расчет остановлен: " + result.status);
+            }
+            nodes = result.leaves;
+        }
+        return "{\"depth\":" + depth + ",\"nodes\":" + nodes + ",\"source\":\"" + source + "\",\"micros\":"
+                + TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + "}";
+    }
+
+    private String moves(Map<String, String> query) {
+        Board board = BoardPool.board(required(query, "fen"));
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        StringBuilder json = new StringBuilder("{\"count\":").append(moves.size()).append(",\"moves\":[");
+        for (int i = 0; i < moves.size(); i++) {
+            json.append(i == 0 ? "\"" : ",\"").append(Move.of(moves.get(i))).append('"');
+        }
+        return json.append("]}").toString();
+    }
+
+    private String stats() {
+        return "{\"requests\":" + requests.sum() + ",\"errors\":" + errors.sum()
+                + ",\"computations\":" + computations.sum() + ",\"coalesced\":" + coalesced.sum()
+                + ",\"inFlight\":" + inFlight.size() + ",\"cacheHits\":" + cache.getHits()
+                + ",\"cacheMisses\":" + cache.getMisses() + ",\"cacheEntries\":" + cache.size()
+                + ",\"cacheCapacity\":" + cache.getCapacity() + "}";
+    }
+
+    private static String required(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Не задан параметр " + name);
+        }
+        return value;
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        if (rawQuery == null) {
+            return query;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Сообщение попадает в строку JSON как есть, а в нем бывает FEN из запроса, в том числе с управляющими символами.
+     */
+    static String error(String message) {
+        String text = String.valueOf(message);
+        StringBuilder json = new StringBuilder(text.length() + 16).append("{\"error\":\"");
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        return json.append("\"}").toString();
+    }
+
+    /**
+     * {@code PerftServer [порт=8080] [потоков счета=все ядра] [кеш, МБ=64] [наибольшая глубина=7]
+     * [ограничение времени, мс=60000]}.
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long cacheMegabytes = args.length > 2 ? Long.parseLong(args[2]) : 64;
+        int maxDepth = args.length > 3 ? Integer.parseInt(args[3]) : 7;
+        long timeLimit = args.length > 4 ? Long.parseLong(args[4]) : 60_000;
+        PerftServer server = new PerftServer(new InetSocketAddress(port), threads, cacheMegabytes, maxDepth,
+                timeLimit);
+        System.out.println("perft на порту " + server.getPort() + ", потоков счета " + threads
+                + ", кеш " + server.getCache().getCapacity() + " записей");
+    }
+}
@@ -0,0 +1,106 @@
+package ru.pflb.perft.server;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU-кеш (ключ позиции, глубина) -&gt; perft, ограниченный по памяти. Занимаемая память оценивается
+ * по {@link #ENTRY_BYTES} на запись: ключ и значение хранятся одним объектом в {@link LinkedHashMap}.
+ * Потокобезопасен через синхронизацию: обращение к кешу на порядки дешевле самого perft.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class ResultCache {
+
+    /**
+     * Оценка на запись в 64-битной JVM со сжатыми указателями: узел LinkedHashMap (40 байт), ключ {@link Key}
+     * (24), значение Long (16) и ячейка таблицы с запасом на коэффициент заполнения (8).
+     */
+    static final int ENTRY_BYTES = 88;
+
+    private final LinkedHashMap<Key, Long> map;
+
+    private final int capacity;
+
+    private long hits, misses;
+
+    public ResultCache(long megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Размер кеша должен быть положительным: " + megabytes);
+        }
+        this.capacity = (int) Math.min(megabytes * 1024 * 1024 / ENTRY_BYTES, Integer.MAX_VALUE);
+        this.map = new LinkedHashMap<Key, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Long> eldest) {
+                return size() > ResultCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return perft или {@code null}, если в кеше нет
+     */
+    public synchronized Long get(Key key) {
+        Long count = map.get(key);
+        if (count == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return count;
+    }
+
+    public synchronized void put(Key key, long count) {
+        map.put(key, count);
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Ключ Зобриста позиции и глубина.
+     */
+    public static final class Key {
+
+        final long position;
+
+        final int depth;
+
+        public Key(long position, int depth) {
+            this.position = position;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return position == other.position && depth == other.depth;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(position * 31 + depth);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toHexString(position) + "@" + depth;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class AsyncPerftTest {
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    @Test
+    public void completesWithFullDivideAndProgress() throws Exception {
+        List<PerftResult> progress = new CopyOnWriteArrayList<>();
+
+        PerftResult result = Perft.calculateAsync(new Board(LONG), 4, PerftOptions.DEFAULT.withProgress(progress::add))
+                .get(60, TimeUnit.SECONDS);
+
+        assertThat(result.status).isEqualTo(PerftResult.Status.COMPLETE);
+        assertThat(result.leaves).isEqualTo(696703);
+        assertThat(result.divide).hasSize(36);
+        assertThat(progress).hasSize(36);
+        assertThat(progress.get(35).leaves).isEqualTo(696703);
+        assertThat(progress.get(0).status).isEqualTo(PerftResult.Status.RUNNING);
+    }
+
+    @Test
+    public void nodeLimitGivesExactPartialDivide() throws Exception {
+        Board board = new Board(LONG);
+
+        PerftResult result = Perft.calculateAsync(board, 5, PerftOptions.DEFAULT.withNodeLimit(2_000_000))
+                .get(60, TimeUnit.SECONDS);
+
+        assertThat(result.status).isEqualTo(PerftResult.Status.NODE_LIMIT);
+        assertThat(result.nodes).isBetween(2_000_000L, 2_000_000L + 4096 + 218);
+        assertThat(result.divide.size()).isLessThan(result.rootMoves);
+        for (DivideResult move : result.divide) {
+            board.makeMove(move.move);
+            assertThat(move.count).isEqualTo(Perft.count(board, 4));
+            board.takeBack(move.move);
+        }
+    }
+
+    @Test
+    public void timeLimitStopsPromptly() throws Exception {
+        long start = System.nanoTime();
+
+        PerftResult result = Perft.calculateAsync(new Board(LONG), 7, PerftOptions.DEFAULT.withTimeLimit(200))
+                .get(60, TimeUnit.SECONDS);
+
+        assertThat(result.status).isEqualTo(PerftResult.Status.TIME_LIMIT);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(2000);
+    }
+
+    @Test
+    public void cancelStopsComputation() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CompletableFuture<PerftResult> future = Perft.calculateAsync(new Board(LONG), 7,
+                PerftOptions.DEFAULT.withExecutor(executor));
+        Thread.sleep(100);
+
+        future.cancel(true);
+
+        assertThatThrownBy(future::get).isInstanceOf(CancellationException.class);
+        // поток освобождается: следующая задача того же однопоточного пула выполняется сразу
+        assertThat(executor.submit(() -> true).get(2, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+    }
+}
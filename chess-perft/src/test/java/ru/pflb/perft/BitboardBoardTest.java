@@ -0,0 +1,89 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Perft.Mode.*;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class BitboardBoardTest {
+
+    private static final String[] POSITIONS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            "4k3/4r3/8/b7/8/2N5/3B4/4K2q w - -",
+            "4k3/8/8/8/8/5n2/8/r3K3 w - -",
+            "3qk3/8/8/8/8/3n4/8/R3KB1R w - -",
+            "r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -",
+    };
+
+    @Test
+    public void generatesSameMovesAsMailbox() {
+        for (String fen : POSITIONS) {
+            walk(new Board(fen), new BitboardBoard(fen), 3);
+        }
+    }
+
+    @Test
+    public void countsMatchMailboxInAllModes() {
+        for (String fen : POSITIONS) {
+            long expected = Perft.count(new Board(fen), 4);
+            for (Perft.Mode mode : Perft.Mode.values()) {
+                assertThat(Perft.count(new BitboardBoard(fen), 4, mode)).as(fen + " " + mode).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void perftTestPositions() {
+        assertThat(Perft.count(new BitboardBoard("4kb2/8/8/8/8/8/8/4K2R w - -"), 6)).isEqualTo(5959535);
+        assertThat(Perft.count(new BitboardBoard("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -"), 5)).isEqualTo(23250211);
+    }
+
+    @Test
+    public void parallelOnBitboards() {
+        BitboardBoard board = new BitboardBoard("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+
+        assertThat(new ParallelPerft(2, 2).calculate(board, 4)).isEqualTo(696703);
+    }
+
+    private static void walk(Board mailbox, BitboardBoard bitboard, int depth) {
+        assertThat(bitboard.getKey()).isEqualTo(mailbox.getKey());
+        assertThat(toSet(bitboard, true)).as(mailbox.toString()).isEqualTo(toSet(mailbox, true));
+        assertThat(toSet(bitboard, false)).as(mailbox.toString()).isEqualTo(toSet(mailbox, false));
+        assertThat(bitboard.countLegalMoves()).isEqualTo(mailbox.countLegalMoves());
+        assertThat(bitboard.isCheck(bitboard.getSideToMove())).isEqualTo(mailbox.isCheck(mailbox.getSideToMove()));
+        if (depth == 0) {
+            return;
+        }
+        MoveList moves = new MoveList();
+        mailbox.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            mailbox.makeMove(moves.get(i));
+            bitboard.makeMove(moves.get(i));
+            walk(mailbox, bitboard, depth - 1);
+            mailbox.takeBack(moves.get(i));
+            bitboard.takeBack(moves.get(i));
+        }
+    }
+
+    private static Set<Integer> toSet(ChessBoard board, boolean legal) {
+        MoveList moves = new MoveList();
+        if (legal) {
+            board.genLegalMoves(moves);
+        } else {
+            board.genAllMoves(moves);
+        }
+        Set<Integer> set = new HashSet<>();
+        for (int i = 0; i < moves.size(); i++) {
+            set.add(moves.get(i));
+        }
+        assertThat(set).hasSize(moves.size());
+        return set;
+    }
+}
@@ -0,0 +1,104 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Color.WHITE;
+import static ru.pflb.perft.Square.*;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class BoardTest {
+
+    @Test
+    public void slidersAttackAlongOpenRays() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+
+        // ладья a8 по восьмой горизонтали до короля, ферзь d1 по вертикали и диагонали
+        assertThat(board.isSquareAttacked(D8.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(A1.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(D7.value, WHITE)).isTrue();
+        assertThat(board.isSquareAttacked(H5.value, WHITE)).isTrue();
+        // слон f8 бьет по диагонали до b4, дальше a3
+        assertThat(board.isSquareAttacked(A3.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(B3.value, BLACK)).isFalse();
+    }
+
+    @Test
+    public void blockedRayDoesNotAttack() {
+        Board board = new Board("4k3/8/8/8/8/8/4N3/4R1K1 b - -");
+
+        assertThat(board.isSquareAttacked(E8.value, WHITE)).isFalse();
+        assertThat(board.isSquareAttacked(E2.value, WHITE)).isTrue();
+        assertThat(board.isSquareAttacked(F4.value, WHITE)).isTrue();
+        assertThat(board.isCheck(BLACK)).isFalse();
+    }
+
+    @Test
+    public void knightAndKingAttacks() {
+        Board board = new Board("8/8/8/3n4/8/8/8/K6k w - -");
+
+        assertThat(board.isSquareAttacked(C3.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(E7.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(D4.value, BLACK)).isFalse();
+        assertThat(board.isSquareAttacked(G2.value, BLACK)).isTrue();
+        assertThat(board.isSquareAttacked(B2.value, WHITE)).isTrue();
+    }
+
+    @Test
+    public void isCheckHasNoSideEffects() {
+        Board board = new Board("4k3/8/8/8/8/8/8/4R1K1 b - -");
+        long key = board.getKey();
+
+        assertThat(board.isCheck(BLACK)).isTrue();
+        assertThat(board.isCheck(WHITE)).isFalse();
+        assertThat(board.getSideToMove()).isEqualTo(BLACK);
+        assertThat(board.getKey()).isEqualTo(key);
+    }
+
+    @Test
+    public void takeBackRestoresPieceOrderExactly() {
+        Board board = new Board("r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -");
+        MoveList before = new MoveList();
+        board.genAllMoves(before);
+
+        walk(board, 3);
+
+        MoveList after = new MoveList();
+        board.genAllMoves(after);
+        assertThat(after.toString()).isEqualTo(before.toString());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        Board copy = board.copy();
+        MoveList moves = new MoveList();
+        copy.genLegalMoves(moves);
+        copy.makeMove(moves.get(0));
+
+        assertThat(copy.getKey()).isNotEqualTo(board.getKey());
+        assertThat(Perft.count(board, 3)).isEqualTo(27986);
+    }
+
+    private static void walk(Board board, int depth) {
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            MoveList order = new MoveList();
+            board.genAllMoves(order);
+
+            board.makeMove(moves.get(i));
+            if (depth > 1) {
+                walk(board, depth - 1);
+            }
+            board.takeBack(moves.get(i));
+
+            MoveList restored = new MoveList();
+            board.genAllMoves(restored);
+            assertThat(restored.toString()).isEqualTo(order.toString());
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Color.WHITE;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class CompiledBoardTest {
+
+    private static final String[] POSITIONS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            "4k3/4r3/8/b7/8/2N5/3B4/4K2q w - -",
+            "4k3/8/8/8/8/5n2/8/r3K3 w - -",
+            "3qk3/8/8/8/8/3n4/8/R3KB1R w - -",
+            "r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -",
+    };
+
+    @Test
+    public void generatesSameMovesInSameOrder() {
+        for (String fen : POSITIONS) {
+            walk(new Board(fen), new CompiledBoard(fen), 3);
+        }
+    }
+
+    @Test
+    public void countsMatchMailboxInAllModes() {
+        for (String fen : POSITIONS) {
+            long expected = Perft.count(new Board(fen), 4);
+            for (Perft.Mode mode : Perft.Mode.values()) {
+                assertThat(Perft.count(new CompiledBoard(fen), 4, mode)).as(fen + " " + mode).isEqualTo(expected);
+            }
+        }
+    }
+
+    @Test
+    public void perftTestPositions() {
+        assertThat(Perft.count(new CompiledBoard("4kb2/8/8/8/8/8/8/4K2R w - -"), 5)).isEqualTo(482053);
+        assertThat(Perft.count(new CompiledBoard("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -"), 4)).isEqualTo(696703);
+        assertThat(Perft.count(new CompiledBoard("4k3/8/8/8/8/5n2/8/r3K3 w - -"), 1)).isEqualTo(2);
+    }
+
+    @Test
+    public void copyKeepsGenerators() {
+        assertThat(new CompiledBoard("4kb2/8/8/8/8/8/8/4K2R w - -").copy()).isInstanceOf(CompiledBoard.class);
+    }
+
+    @Test
+    public void generatedSourceHasNoColorBranches() {
+        assertThat(MoveGenerators.genAllMovesSource(WHITE)).doesNotContain("sideToMove").doesNotContain("WHITE");
+        assertThat(MoveGenerators.isAttackedSource(BLACK)).doesNotContain("[i]");
+    }
+
+    private static void walk(Board mailbox, CompiledBoard compiled, int depth) {
+        assertThat(toList(compiled)).as(mailbox.toString()).isEqualTo(toList(mailbox));
+        assertThat(compiled.isCheck(WHITE)).isEqualTo(mailbox.isCheck(WHITE));
+        assertThat(compiled.isCheck(BLACK)).isEqualTo(mailbox.isCheck(BLACK));
+        assertThat(compiled.countLegalMoves()).isEqualTo(mailbox.countLegalMoves());
+        if (depth == 0) {
+            return;
+        }
+        MoveList moves = new MoveList();
+        mailbox.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            mailbox.makeMove(moves.get(i));
+            compiled.makeMove(moves.get(i));
+            walk(mailbox, compiled, depth - 1);
+            mailbox.takeBack(moves.get(i));
+            compiled.takeBack(moves.get(i));
+        }
+    }
+
+    private static int[] toList(Board board) {
+        MoveList moves = new MoveList();
+        board.genAllMoves(moves);
+        int[] packed = new int[moves.size()];
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] = moves.get(i);
+        }
+        return packed;
+    }
+}
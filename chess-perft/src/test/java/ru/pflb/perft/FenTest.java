@@ -0,0 +1,102 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+import ru.pflb.perft.exception.FenParseException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+import static ru.pflb.perft.Color.BLACK;
+import static ru.pflb.perft.Square.E3;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class FenTest {
+
+    private static final String SHORT = "4kb2/8/8/8/8/8/8/4K2R w - -";
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    @Test
+    public void setFenReplacesPreviousPosition() {
+        Board board = new Board(LONG);
+        board.setFen(SHORT);
+
+        Board fresh = new Board(SHORT);
+        assertThat(board.toString()).isEqualTo(fresh.toString());
+        assertThat(board.getKey()).isEqualTo(fresh.getKey());
+        assertThat(Perft.count(board, 4)).isEqualTo(27937);
+
+        board.setFen(LONG);
+        assertThat(Perft.count(board, 3)).isEqualTo(27986);
+    }
+
+    @Test
+    public void setFenAfterMovesStartsFromScratch() {
+        Board board = new Board(LONG);
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        board.makeMove(moves.get(3));
+
+        board.setFen(LONG);
+
+        assertThat(board.getKey()).isEqualTo(new Board(LONG).getKey());
+        assertThat(Perft.count(board, 3)).isEqualTo(27986);
+    }
+
+    @Test
+    public void parsesAllFields() {
+        Board board = new Board("r3k2r/8/8/8/8/8/8/4K3 b kq e3 7 42");
+
+        assertThat(board.getSideToMove()).isEqualTo(BLACK);
+        assertThat(board.getCastlingRights()).isEqualTo(4 | 8);
+        assertThat(board.getEnPassantSquare()).isEqualTo(E3.value);
+        assertThat(board.getHalfmoveClock()).isEqualTo(7);
+        assertThat(board.getFullmoveNumber()).isEqualTo(42);
+    }
+
+    @Test
+    public void errorsPointAtOffendingCharacter() {
+        assertOffset("4kb2/8/8/8/8/8/8/4K2X w - -", 20);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R2 w - -", 21);
+        assertOffset("4kb2/8/8/8/8/8/4K2R w - -", 19);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R x - -", 22);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R w KK -", 25);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R w - e4", 26);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R w - - 0 1 x", 32);
+        assertOffset("4kb2/8/8/8/8/8/8/4K2R", 21);
+    }
+
+    @Test
+    public void rejectsCheckToSideNotToMove() {
+        assertOffset("4k3/8/8/8/8/8/8/4R1K1 w - -", 22);
+        assertOffset("4k3/8/8/8/8/5n2/8/r3K3 b - -", 23);
+
+        assertThat(Perft.count(new Board("4k3/8/8/8/8/5n2/8/r3K3 w - -"), 1)).isEqualTo(2);
+    }
+
+    @Test
+    public void toFenRoundTrips() {
+        String[] fens = {SHORT + " 0 1", LONG + " 0 1", "r3k2r/8/8/8/8/8/8/4K3 b kq e3 7 42",
+                "r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - - 0 1"};
+        for (String fen : fens) {
+            assertThat(new Board(fen).toFen()).isEqualTo(fen);
+        }
+    }
+
+    @Test
+    public void poolReusesBoardPerThread() {
+        Board first = BoardPool.board(SHORT);
+        Board second = BoardPool.board(LONG);
+
+        assertThat(second).isSameAs(first);
+        assertThat(Perft.count(second, 3)).isEqualTo(27986);
+    }
+
+    private static void assertOffset(String fen, int offset) {
+        Throwable thrown = catchThrowable(() -> new Board(fen));
+
+        assertThat(thrown).as(fen).isInstanceOf(FenParseException.class);
+        assertThat(((FenParseException) thrown).getOffset()).as(fen).isEqualTo(offset);
+    }
+}
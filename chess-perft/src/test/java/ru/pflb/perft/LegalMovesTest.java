@@ -0,0 +1,82 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Perft.Mode.*;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class LegalMovesTest {
+
+    private static final String[] POSITIONS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            // связанные слон и конь, шах ферзем
+            "4k3/4r3/8/b7/8/2N5/3B4/4K2q w - -",
+            // двойной шах
+            "4k3/8/8/8/8/5n2/8/r3K3 w - -",
+            // шах конем, который можно взять
+            "3qk3/8/8/8/8/3n4/8/R3KB1R w - -",
+            // связка ферзя вдоль линии, ферзь может взять связывающего
+            "7k/8/8/8/1b6/8/3Q4/4K3 w - -",
+    };
+
+    @Test
+    public void legalMovesAreExactlyPseudoMovesNotLeavingKingInCheck() {
+        for (String fen : POSITIONS) {
+            walk(new Board(fen), 3);
+        }
+    }
+
+    @Test
+    public void bothModesCountTheSame() {
+        for (String fen : POSITIONS) {
+            Board board = new Board(fen);
+            long expected = Perft.count(board, 4, PSEUDO_LEGAL);
+            assertThat(Perft.count(board, 4, LEGAL)).as(fen).isEqualTo(expected);
+            assertThat(Perft.count(board, 4, BULK)).as(fen).isEqualTo(expected);
+            assertThat(Perft.count(board, 4, COUNT_ONLY)).as(fen).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void legalModeMatchesReferenceCounts() {
+        assertThat(Perft.count(new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -"), 4, LEGAL)).isEqualTo(696703);
+        assertThat(Perft.count(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 6, LEGAL)).isEqualTo(5959535);
+    }
+
+    private static void walk(Board board, int depth) {
+        MoveList legal = new MoveList();
+        board.genLegalMoves(legal);
+        Set<Integer> expected = new HashSet<>();
+        MoveList pseudo = new MoveList();
+        board.genAllMoves(pseudo);
+        for (int i = 0; i < pseudo.size(); i++) {
+            board.makeMove(pseudo.get(i));
+            if (!board.isCheck(board.getOpponentColor())) {
+                expected.add(pseudo.get(i));
+            }
+            board.takeBack(pseudo.get(i));
+        }
+        Set<Integer> actual = new HashSet<>();
+        for (int i = 0; i < legal.size(); i++) {
+            actual.add(legal.get(i));
+        }
+        assertThat(actual).as(board.toString()).isEqualTo(expected);
+        assertThat(legal.size()).isEqualTo(expected.size());
+        assertThat(board.countLegalMoves()).isEqualTo(expected.size());
+
+        if (depth > 1) {
+            for (int i = 0; i < legal.size(); i++) {
+                board.makeMove(legal.get(i));
+                walk(board, depth - 1);
+                board.takeBack(legal.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Piece.*;
+import static ru.pflb.perft.Square.*;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class MovesTest {
+
+    @Test
+    public void packedFieldsRoundTrip() {
+        int move = Moves.pack(A8.value, H1.value, B_QUEEN, W_KNIGHT);
+
+        assertThat(Moves.from(move)).isEqualTo(A8.value);
+        assertThat(Moves.to(move)).isEqualTo(H1.value);
+        assertThat(Moves.piece(move)).isEqualTo(B_QUEEN);
+        assertThat(Moves.capture(move)).isEqualTo(W_KNIGHT);
+        assertThat(Moves.isCapture(move)).isTrue();
+        assertThat(Moves.toString(move)).isEqualTo("q A8-H1");
+    }
+
+    @Test
+    public void quietMoveHasNoCapture() {
+        int move = Moves.pack(E1.value, D2.value, W_KING);
+
+        assertThat(Moves.isCapture(move)).isFalse();
+        assertThat(Moves.capture(move)).isEqualTo(EMP);
+        assertThat(Move.of(move).isCapture()).isFalse();
+    }
+
+    @Test
+    public void objectAdapterMatchesPackedMoves() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        MoveList moves = new MoveList();
+        board.genAllMoves(moves);
+
+        assertThat(board.genAllMoves()).hasSize(moves.size()).hasSize(37);
+        for (int i = 0; i < moves.size(); i++) {
+            assertThat(Move.of(moves.get(i)).toInt()).isEqualTo(moves.get(i));
+        }
+    }
+}
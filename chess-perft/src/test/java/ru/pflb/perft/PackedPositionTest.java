@@ -0,0 +1,115 @@
+package ru.pflb.perft;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ru.pflb.perft.epd.EpdToPacked;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PackedPositionTest {
+
+    private static final String[] POSITIONS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            "r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -",
+            "r3k2r/8/8/8/8/8/8/R3K2R b KQkq e3",
+            "7k/8/8/8/1b6/8/3Q4/4K3 w - -",
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void roundTripKeepsPosition() {
+        ByteBuffer buffer = ByteBuffer.allocate(PackedPosition.BYTES + 3);
+        Board decoded = new Board(POSITIONS[0]);
+        for (String fen : POSITIONS) {
+            Board board = new Board(fen);
+            PackedPosition.write(board, buffer, 3);
+
+            PackedPosition.read(buffer, 3, decoded);
+
+            assertThat(decoded.toString()).as(fen).isEqualTo(board.toString());
+            assertThat(decoded.getKey()).as(fen).isEqualTo(board.getKey());
+            assertThat(decoded.getSideToMove()).as(fen).isEqualTo(board.getSideToMove());
+            assertThat(decoded.getCastlingRights()).as(fen).isEqualTo(board.getCastlingRights());
+            assertThat(decoded.getEnPassantSquare()).as(fen).isEqualTo(board.getEnPassantSquare());
+            assertThat(Perft.count(decoded, 3)).as(fen).isEqualTo(Perft.count(board, 3));
+        }
+    }
+
+    @Test
+    public void readerGivesRandomAccessByIndex() throws Exception {
+        Path file = folder.newFile("positions.bin").toPath();
+        try (PackedPositionWriter writer = new PackedPositionWriter(file)) {
+            for (String fen : POSITIONS) {
+                writer.write(new BitboardBoard(fen));
+            }
+        }
+        assertThat(Files.size(file)).isEqualTo(32 + POSITIONS.length * PackedPosition.BYTES);
+
+        PackedPositionReader reader = PackedPositionReader.open(file);
+
+        assertThat(reader.size()).isEqualTo(POSITIONS.length);
+        for (int i = POSITIONS.length - 1; i >= 0; i--) {
+            assertThat(reader.read(i).getKey()).isEqualTo(new Board(POSITIONS[i]).getKey());
+        }
+    }
+
+    @Test
+    public void rejectsForeignFile() throws Exception {
+        Path file = folder.newFile("positions.epd").toPath();
+        Files.write(file, (POSITIONS[0] + "\n" + POSITIONS[1] + "\n").getBytes("US-ASCII"));
+
+        assertThatThrownBy(() -> PackedPositionReader.open(file)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void rejectsTooManyPiecesOfOneKind() {
+        ByteBuffer buffer = ByteBuffer.allocate(PackedPosition.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        // 13 занятых полей: белый король (полубайт 1), черный король (9) и 11 белых ладей (3)
+        long nibbles = 0x1L | 0x9L << 4;
+        for (int i = 2; i < 13; i++) {
+            nibbles |= 0x3L << i * 4;
+        }
+        buffer.putLong(0, (1L << 13) - 1).putLong(8, nibbles);
+
+        assertThatThrownBy(() -> PackedPosition.read(buffer, 0, new Board(POSITIONS[0])))
+                .isInstanceOf(IllegalStateException.class).hasMessageContaining("Слишком много фигур");
+    }
+
+    @Test
+    public void convertSkipsPositionsThatDoNotFit() throws Exception {
+        Path epd = folder.newFile("positions.epd").toPath();
+        Path packed = folder.getRoot().toPath().resolve("positions.bin");
+        // 33 фигуры: разбирается, но в 16 байт кодов не помещается
+        Files.write(epd, ("rnbqkbnr/nnnnnnnn/8/8/8/R7/NNNNNNNN/RNBQKBNR w - - ;D1 1\n"
+                + POSITIONS[0] + " ;D1 14\n").getBytes("US-ASCII"));
+
+        assertThat(EpdToPacked.convert(epd, packed)).isEqualTo(1);
+        PackedPositionReader reader = PackedPositionReader.open(packed);
+        assertThat(reader.size()).isEqualTo(1);
+        assertThat(reader.read(0).getKey()).isEqualTo(new Board(POSITIONS[0]).getKey());
+    }
+
+    @Test
+    public void convertWithAllRecordsSkippedGivesEmptyFile() throws Exception {
+        Path epd = folder.newFile("broken.epd").toPath();
+        Path packed = folder.getRoot().toPath().resolve("broken.bin");
+        Files.write(epd, "4kx2/8/8/8/8/8/8/4K2R w - -\n".getBytes("US-ASCII"));
+
+        assertThat(EpdToPacked.convert(epd, packed)).isZero();
+        assertThat(Files.size(packed)).isEqualTo(32);
+        assertThat(PackedPositionReader.open(packed).size()).isZero();
+    }
+}
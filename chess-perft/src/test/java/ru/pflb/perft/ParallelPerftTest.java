@@ -0,0 +1,55 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class ParallelPerftTest {
+
+    @Test
+    public void rootSplitMatchesSerial() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+
+        long positions = new ParallelPerft(4, 1).calculate(board, 4);
+
+        assertThat(positions).isEqualTo(Perft.count(board, 4)).isEqualTo(696703);
+    }
+
+    @Test
+    public void secondPlySplitMatchesSerial() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+
+        long positions = new ParallelPerft(3, 2).calculate(board, 5);
+
+        assertThat(positions).isEqualTo(482053);
+    }
+
+    @Test
+    public void boardIsNotModified() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        String before = board.toString();
+
+        new ParallelPerft(2, 2).calculate(board, 3);
+
+        assertThat(board.toString()).isEqualTo(before);
+    }
+
+    @Test
+    public void divideMatchesSerialDivide() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        Map<String, Long> serial = new HashMap<>();
+        Map<String, Long> parallel = new HashMap<>();
+
+        Perft.divide(board, 5, r -> serial.put(r.move.toString(), r.count));
+        long positions = new ParallelPerft(3, 2).divide(board, 5, r -> parallel.put(r.move.toString(), r.count));
+
+        assertThat(positions).isEqualTo(482053);
+        assertThat(parallel).isEqualTo(serial).hasSize(14);
+    }
+}
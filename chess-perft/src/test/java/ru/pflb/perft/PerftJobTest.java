@@ -0,0 +1,78 @@
+package ru.pflb.perft;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftJobTest {
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void resumeAfterCrashMatchesUninterruptedRun() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("perft.journal");
+        Board board = new Board(LONG);
+        List<DivideResult> full = new PerftJob(journal, PerftJob.Fsync.EVERY_RECORD, 2).run(board, 4, r -> {
+        });
+
+        // падение посреди записи: заголовок, десять целых строк и оборванная одиннадцатая
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        String crashed = String.join("\n", lines.subList(0, 11)) + "\n" + lines.get(11).substring(0, 5);
+        Files.write(journal, crashed.getBytes(StandardCharsets.UTF_8));
+
+        PerftJob job = new PerftJob(journal, PerftJob.Fsync.EVERY_SECOND, 3);
+        List<DivideResult> streamed = new ArrayList<>();
+        List<DivideResult> resumed = job.run(board, 4, streamed::add);
+
+        assertThat(job.getResumed()).isEqualTo(10);
+        assertThat(streamed).hasSize(36);
+        assertThat(counts(resumed)).isEqualTo(counts(full));
+        assertThat(Arrays.stream(counts(resumed)).sum()).isEqualTo(696703);
+        assertThat(Files.readAllLines(journal, StandardCharsets.UTF_8)).hasSize(37);
+    }
+
+    @Test
+    public void completedJournalIsNotRecounted() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("perft.journal");
+        Board board = new Board(LONG);
+        new PerftJob(journal, PerftJob.Fsync.NEVER, 1).run(board, 3, r -> {
+        });
+
+        PerftJob job = new PerftJob(journal, PerftJob.Fsync.NEVER, 1);
+        List<DivideResult> results = job.run(board, 3, r -> {
+        });
+
+        assertThat(job.getResumed()).isEqualTo(36);
+        assertThat(Arrays.stream(counts(results)).sum()).isEqualTo(27986);
+    }
+
+    @Test
+    public void rejectsJournalOfAnotherRun() throws Exception {
+        Path journal = folder.getRoot().toPath().resolve("perft.journal");
+        new PerftJob(journal, PerftJob.Fsync.NEVER, 1).run(new Board(LONG), 2, r -> {
+        });
+
+        assertThatThrownBy(() -> new PerftJob(journal, PerftJob.Fsync.NEVER, 1).run(new Board(LONG), 3, r -> {
+        })).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static long[] counts(List<DivideResult> results) {
+        return results.stream().mapToLong(r -> r.count).toArray();
+    }
+}
@@ -0,0 +1,77 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import javax.management.ObjectName;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Флаг {@link PerftStats#ENABLED} читается один раз при загрузке класса, поэтому включенные счетчики
+ * проверяются в отдельной JVM.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftStatsTest {
+
+    @Test
+    public void disabledByDefault() {
+        Perft.count(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 3, Perft.Mode.PSEUDO_LEGAL);
+
+        assertThat(PerftStats.ENABLED).isFalse();
+        assertThat(PerftStats.snapshot().nodes).isZero();
+    }
+
+    @Test
+    public void countsNodesMovesAndCacheWhenEnabled() throws Exception {
+        Process process = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-Dperft.stats=true", "-cp", System.getProperty("java.class.path"), Probe.class.getName())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+        String output;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            output = reader.readLine();
+        }
+        assertThat(process.waitFor(60, TimeUnit.SECONDS)).isTrue();
+
+        // листья, узлы на глубинах 1-3, нелегальные, ходы королей, обращения к кешу, попадания, узлы по JMX
+        String[] fields = output.split(" ");
+        assertThat(fields).as(output).hasSize(9);
+        assertThat(fields[0]).isEqualTo("2330");
+        assertThat(fields[1]).isEqualTo("143");
+        assertThat(fields[2]).isEqualTo("14");
+        assertThat(fields[3]).isEqualTo("1");
+        assertThat(Long.parseLong(fields[4])).isPositive();
+        assertThat(Long.parseLong(fields[5])).isPositive();
+        assertThat(Long.parseLong(fields[7])).isPositive().isLessThan(Long.parseLong(fields[6]));
+        assertThat(Long.parseLong(fields[8])).isGreaterThanOrEqualTo(2330 + 143 + 14 + 1);
+    }
+
+    public static class Probe {
+
+        public static void main(String[] args) throws Exception {
+            Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+            Perft.count(board, 3, Perft.Mode.PSEUDO_LEGAL);
+            PerftStats.Snapshot plain = PerftStats.snapshot();
+
+            Perft.count(board, 4, new TranspositionTable(1, TranspositionTable.Replacement.DEPTH_PREFERRED));
+            PerftStats.Snapshot cached = PerftStats.snapshot();
+
+            PerftStats.registerMBean();
+            Object nodes = ManagementFactory.getPlatformMBeanServer()
+                    .getAttribute(new ObjectName(PerftStatsMXBean.NAME), "Nodes");
+
+            System.out.println(plain.nodesByDepth[0] + " " + plain.nodesByDepth[1] + " " + plain.nodesByDepth[2]
+                    + " " + plain.nodesByDepth[3] + " " + plain.illegalMoves + " " + plain.movesByPiece.get("W_KING")
+                    + " " + cached.cacheProbes + " " + cached.cacheHits + " " + nodes);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package ru.pflb.perft;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 /**
@@ -14,7 +17,7 @@ public class PerftTest {
     public void shortPerftTest() {
         long millis = System.currentTimeMillis();
         Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
-        int movesNb = Perft.calculate(board, 1);
+        int movesNb = Perft.calculate(board, 7);
         System.out.println(System.currentTimeMillis() - millis);
 
         assertThat(movesNb).isEqualTo(104744354);
@@ -35,4 +38,35 @@ public class PerftTest {
         // 3639
     }
 
-}
\ No newline at end of file
+    @Test
+    public void divideSumsToPerftAndMatchesEachSubtree() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        List<DivideResult> results = new ArrayList<>();
+
+        long positions = Perft.divide(board, 4, results::add);
+
+        assertThat(positions).isEqualTo(696703);
+        assertThat(results).hasSize(36);
+        assertThat(results.stream().mapToLong(r -> r.count).sum()).isEqualTo(positions);
+        for (DivideResult result : results) {
+            board.makeMove(result.move);
+            assertThat(Perft.count(board, 3)).as(result.move.toString()).isEqualTo(result.count);
+            board.takeBack(result.move);
+        }
+    }
+
+    @Test
+    public void preallocatedMoveListsAreReusedAcrossCounts() {
+        MoveList[] lists = Perft.newMoveLists(5);
+
+        assertThat(Perft.count(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 4, Perft.DEFAULT_MODE, null, lists))
+                .isEqualTo(27937);
+        assertThat(Perft.count(new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -"), 3, Perft.DEFAULT_MODE, null, lists))
+                .isEqualTo(27986);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tooFewMoveListsAreRejected() {
+        Perft.count(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 4, Perft.DEFAULT_MODE, null, Perft.newMoveLists(3));
+    }
+}
@@ -0,0 +1,113 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PositionSpliteratorTest {
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    @Test
+    public void countsMatchPerft() {
+        for (int depth = 0; depth <= 4; depth++) {
+            assertThat(Perft.positions(new Board(LONG), depth).count()).as("depth " + depth)
+                    .isEqualTo(Perft.count(new Board(LONG), depth));
+        }
+        assertThat(Perft.positions(new Board("4k3/8/8/8/8/5n2/8/r3K3 w - -"), 1).count()).isEqualTo(2);
+    }
+
+    @Test
+    public void parallelStreamVisitsSamePaths() {
+        Set<String> sequential = Perft.positions(new Board(LONG), 3).map(Object::toString).collect(Collectors.toSet());
+        Set<String> parallel = ConcurrentHashMap.newKeySet();
+        Perft.positions(new Board(LONG), 3).parallel().forEach(leaf -> parallel.add(leaf.toString()));
+
+        assertThat(sequential).hasSize(Perft.calculate(new Board(LONG), 3));
+        assertThat(parallel).isEqualTo(sequential);
+    }
+
+    @Test
+    public void splitsPartitionTheTree() {
+        PositionSpliterator spliterator = new PositionSpliterator(new Board(LONG), 4);
+        List<Spliterator<PositionSpliterator.Leaf>> parts = new ArrayList<>();
+        // часть обхода сделана до разбиения, чтобы отдавались и ходы глубже корня
+        for (int i = 0; i < 1000; i++) {
+            spliterator.tryAdvance(leaf -> { });
+        }
+        for (Spliterator<PositionSpliterator.Leaf> split; (split = spliterator.trySplit()) != null; ) {
+            parts.add(split);
+        }
+        assertThat(parts.size()).isGreaterThan(1);
+
+        long[] count = {1000};
+        spliterator.forEachRemaining(leaf -> count[0]++);
+        for (Spliterator<PositionSpliterator.Leaf> part : parts) {
+            part.forEachRemaining(leaf -> count[0]++);
+        }
+        assertThat(count[0]).isEqualTo(Perft.count(new Board(LONG), 4));
+    }
+
+    @Test
+    public void leafPathReplaysToSamePosition() {
+        Perft.positions(new Board(LONG), 3).parallel().forEach(leaf -> {
+            Board replay = new Board(LONG);
+            for (int move : leaf.path()) {
+                replay.makeMove(move);
+            }
+            assertThat(replay.getKey()).isEqualTo(leaf.getKey());
+            assertThat(leaf.copyBoard().getKey()).isEqualTo(leaf.getKey());
+        });
+    }
+
+    @Test
+    public void packedCopiesMatchReplayedPaths() {
+        // легковес копируется внутри действия: позиция и путь пишутся в свой буфер
+        List<ByteBuffer> copies = Perft.positions(new Board(LONG), 2).map(leaf -> {
+            ByteBuffer copy = ByteBuffer.allocate(PackedPosition.BYTES + 2 * Integer.BYTES);
+            leaf.writeTo(copy, 0);
+            int[] path = leaf.path();
+            copy.putInt(PackedPosition.BYTES, path[0]).putInt(PackedPosition.BYTES + Integer.BYTES, path[1]);
+            return copy;
+        }).collect(Collectors.toList());
+
+        assertThat(copies).hasSize(Perft.calculate(new Board(LONG), 2));
+        for (ByteBuffer copy : copies) {
+            Board replay = new Board(LONG);
+            replay.makeMove(copy.getInt(PackedPosition.BYTES));
+            replay.makeMove(copy.getInt(PackedPosition.BYTES + Integer.BYTES));
+
+            assertThat(PackedPosition.read(copy, 0, new Board(LONG)).getKey()).isEqualTo(replay.getKey());
+        }
+    }
+
+    @Test
+    public void bufferingOperationsNeedCopies() {
+        List<int[]> paths = Perft.positions(new Board(LONG), 2).parallel().map(PositionSpliterator.Leaf::path)
+                .limit(100).collect(Collectors.toList());
+
+        // копии путей различны: легковес был бы одним и тем же последним путем
+        assertThat(paths.stream().map(Arrays::toString).distinct().count()).isEqualTo(100);
+    }
+
+    @Test
+    public void sourceBoardIsNotChanged() {
+        Board board = new Board(LONG);
+        long key = board.getKey();
+        Perft.positions(board, 3).limit(10).count();
+
+        assertThat(board.getKey()).isEqualTo(key);
+    }
+}
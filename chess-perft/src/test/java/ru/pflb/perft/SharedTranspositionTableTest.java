@@ -0,0 +1,43 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.TranspositionTable.Replacement.ALWAYS_REPLACE;
+import static ru.pflb.perft.TranspositionTable.Replacement.DEPTH_PREFERRED;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class SharedTranspositionTableTest {
+
+    @Test
+    public void probeReturnsStoredCount() {
+        SharedTranspositionTable table = new SharedTranspositionTable(1, DEPTH_PREFERRED);
+        table.store(0x1234_5678_9ABC_DEF0L, 5, 602168052L);
+
+        assertThat(table.probe(0x1234_5678_9ABC_DEF0L, 5)).isEqualTo(602168052L);
+        assertThat(table.probe(0x1234_5678_9ABC_DEF0L, 4)).isEqualTo(-1);
+        assertThat(table.probe(0x0FED_CBA9_8765_4321L, 5)).isEqualTo(-1);
+        assertThat(table.getCapacity()).isEqualTo(65536);
+    }
+
+    @Test
+    public void sharedByWorkersMatchesSerialCount() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        SharedTranspositionTable table = new SharedTranspositionTable(8, DEPTH_PREFERRED);
+
+        long positions = new ParallelPerft(4, 2, table).calculate(board, 6);
+
+        assertThat(positions).isEqualTo(5959535);
+        assertThat(table.getHits()).isPositive();
+    }
+
+    @Test
+    public void tinySharedTableStaysExact() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        SharedTranspositionTable table = new SharedTranspositionTable(1, ALWAYS_REPLACE);
+
+        assertThat(new ParallelPerft(3, 1, table).calculate(board, 4)).isEqualTo(696703);
+    }
+}
@@ -0,0 +1,130 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Square.A8;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class SymmetricBoardTest {
+
+    private static final String[] POSITIONS = {
+            "4kb2/8/8/8/8/8/8/4K2R w - -",
+            "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -",
+            "4k3/4r3/8/b7/8/2N5/3B4/4K2q w - -",
+            "r1b1kb1r/8/2n5/8/1q6/8/4K3/RNBQ1BNR b - -",
+    };
+
+    private static final String FEN_CHARS = ".KBRQN.kbrqn";
+
+    @Test
+    public void symmetricPositionsShareKeyAndPerft() {
+        for (String fen : POSITIONS) {
+            long key = new SymmetricBoard(fen).getKey();
+            long perft = Perft.count(new Board(fen), 3);
+            Set<Long> exactKeys = new HashSet<>();
+            for (int t = 0; t < SymmetricBoard.SYMMETRIES; t++) {
+                String transformed = transform(new Board(fen), t);
+                SymmetricBoard board = new SymmetricBoard(transformed);
+
+                assertThat(board.getKey()).as(transformed).isEqualTo(key);
+                assertThat(board.getSymmetricKey(0)).isEqualTo(board.getExactKey());
+                assertThat(Perft.count(new Board(transformed), 3)).as(transformed).isEqualTo(perft);
+                exactKeys.add(board.getExactKey());
+            }
+            assertThat(exactKeys).hasSize(SymmetricBoard.SYMMETRIES);
+        }
+    }
+
+    @Test
+    public void incrementalKeysMatchRecomputation() {
+        for (String fen : POSITIONS) {
+            walk(new SymmetricBoard(fen), 3);
+        }
+    }
+
+    @Test
+    public void perftWithSymmetricCacheIsExact() {
+        TranspositionTable plain = new TranspositionTable(1, TranspositionTable.Replacement.DEPTH_PREFERRED);
+        TranspositionTable symmetric = new TranspositionTable(1, TranspositionTable.Replacement.DEPTH_PREFERRED);
+
+        assertThat(Perft.count(new Board(POSITIONS[1]), 5, plain)).isEqualTo(23250211);
+        assertThat(Perft.count(new SymmetricBoard(POSITIONS[1]), 5, symmetric)).isEqualTo(23250211);
+        assertThat(new ParallelPerft(2, 2, new SharedTranspositionTable(1, TranspositionTable.Replacement.ALWAYS_REPLACE))
+                .calculate(new SymmetricBoard(POSITIONS[0]), 5)).isEqualTo(482053);
+        assertThat(symmetric.getHits()).isGreaterThan(plain.getHits());
+    }
+
+    @Test
+    public void copyKeepsKeys() {
+        SymmetricBoard board = new SymmetricBoard(POSITIONS[3]);
+        SymmetricBoard copy = board.copy();
+        SymmetricBoard fromPlain = new SymmetricBoard(new Board(POSITIONS[3]));
+
+        assertThat(copy.getKey()).isEqualTo(board.getKey());
+        assertThat(fromPlain.getKey()).isEqualTo(board.getKey());
+    }
+
+    private static void walk(SymmetricBoard board, int depth) {
+        SymmetricBoard expected = new SymmetricBoard(board.toFen());
+        for (int t = 0; t < SymmetricBoard.SYMMETRIES; t++) {
+            assertThat(board.getSymmetricKey(t)).as(board.toFen() + " " + t).isEqualTo(expected.getSymmetricKey(t));
+        }
+        if (depth == 0) {
+            return;
+        }
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            board.makeMove(moves.get(i));
+            walk(board, depth - 1);
+            board.takeBack(moves.get(i));
+        }
+    }
+
+    /**
+     * FEN позиции после преобразования {@code t} в нумерации {@link SymmetricBoard#transform(int, int)}.
+     */
+    private static String transform(Board board, int t) {
+        char[] squares = new char[120];
+        for (int rank = 7; rank >= 0; rank--) {
+            for (int file = 0; file < 8; file++) {
+                int square = A8.value - (7 - rank) * 10 - file;
+                Piece piece = board.getPiece(square);
+                if (piece != Piece.EMP) {
+                    int code = t < 8 ? piece.code : piece.code < 6 ? piece.code + 6 : piece.code - 6;
+                    squares[SymmetricBoard.transform(t, square)] = FEN_CHARS.charAt(code);
+                }
+            }
+        }
+        StringBuilder fen = new StringBuilder();
+        for (int rank = 7; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < 8; file++) {
+                char c = squares[A8.value - (7 - rank) * 10 - file];
+                if (c == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                fen.append(c);
+            }
+            if (empty > 0) {
+                fen.append(empty);
+            }
+            if (rank > 0) {
+                fen.append('/');
+            }
+        }
+        boolean white = board.getSideToMove() == Color.WHITE;
+        return fen.append(white != t >= 8 ? " w - -" : " b - -").toString();
+    }
+}
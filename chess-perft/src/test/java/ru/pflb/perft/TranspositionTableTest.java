@@ -0,0 +1,52 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.TranspositionTable.Replacement.ALWAYS_REPLACE;
+import static ru.pflb.perft.TranspositionTable.Replacement.DEPTH_PREFERRED;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class TranspositionTableTest {
+
+    @Test
+    public void depthPreferredMatchesUncachedCount() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        TranspositionTable table = new TranspositionTable(16, DEPTH_PREFERRED);
+
+        assertThat(Perft.count(board, 6, table)).isEqualTo(5959535);
+        assertThat(table.getHits()).isPositive();
+    }
+
+    @Test
+    public void alwaysReplaceMatchesUncachedCount() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+        TranspositionTable table = new TranspositionTable(16, ALWAYS_REPLACE);
+
+        assertThat(Perft.count(board, 4, table)).isEqualTo(696703);
+    }
+
+    @Test
+    public void tinyTableCollidesButStaysExact() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        TranspositionTable table = new TranspositionTable(1, DEPTH_PREFERRED);
+
+        assertThat(Perft.count(board, 5, table)).isEqualTo(482053);
+        assertThat(table.getCapacity()).isEqualTo(65536);
+        assertThat(table.getCollisions()).isPositive();
+        assertThat(table.getHits() + table.getMisses()).isGreaterThan(table.getCollisions());
+    }
+
+    @Test
+    public void repeatedRunIsServedFromTable() {
+        Board board = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        TranspositionTable table = new TranspositionTable(4, DEPTH_PREFERRED);
+        Perft.count(board, 4, table);
+        long misses = table.getMisses();
+
+        assertThat(Perft.count(board, 4, table)).isEqualTo(27937);
+        assertThat(table.getMisses()).isEqualTo(misses);
+    }
+}
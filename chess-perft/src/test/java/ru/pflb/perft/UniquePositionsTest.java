@@ -0,0 +1,81 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class UniquePositionsTest {
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    @Test
+    public void matchesBruteForce() {
+        for (String fen : new String[]{"4kb2/8/8/8/8/8/8/4K2R w - -", LONG, "4k3/8/8/8/8/5n2/8/r3K3 w - -"}) {
+            for (int depth = 0; depth <= 4; depth++) {
+                Set<Long> keys = new HashSet<>();
+                collect(new Board(fen), depth, keys);
+                assertThat(new UniquePositions(1, 1).calculate(new Board(fen), depth).positions)
+                        .as(fen + " " + depth).isEqualTo(keys.size());
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential() {
+        UniquePositionsResult sequential = new UniquePositions(1, 1).calculate(new Board(LONG), 4);
+        UniquePositionsResult parallel = new UniquePositions(4, 3).calculate(new CompiledBoard(LONG), 4);
+
+        assertThat(parallel.positions).isEqualTo(sequential.positions);
+        assertThat(parallel.expanded).isEqualTo(sequential.expanded);
+        assertThat(Perft.uniquePositions(new Board(LONG), 4)).isEqualTo(sequential.positions);
+    }
+
+    @Test
+    public void prunesTranspositions() {
+        UniquePositionsResult result = new UniquePositions(1, 1).calculate(new Board(LONG), 4);
+
+        assertThat(result.positions).isLessThan(Perft.count(new Board(LONG), 4));
+        assertThat(result.pruned).isPositive();
+        assertThat(result.peakBytes).isPositive();
+    }
+
+    @Test
+    public void offHeapSetGrowsAndKeepsKeys() {
+        OffHeapLongSet set = new OffHeapLongSet(4, 2);
+        Random random = new Random(1);
+        Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            long key = i % 3 == 0 ? random.nextInt(1000) : random.nextLong();
+            assertThat(set.add(key)).isEqualTo(expected.add(key));
+        }
+        assertThat(set.add(0)).isEqualTo(expected.add(0L));
+        assertThat(set.add(0)).isFalse();
+        assertThat(set.size()).isEqualTo(expected.size());
+        for (long key : expected) {
+            assertThat(set.contains(key)).isTrue();
+        }
+        assertThat(set.contains(-1)).isEqualTo(expected.contains(-1L));
+        assertThat(set.getPeakBytes()).isGreaterThanOrEqualTo(set.getAllocatedBytes());
+    }
+
+    private static void collect(ChessBoard board, int depth, Set<Long> keys) {
+        if (depth == 0) {
+            keys.add(board.getKey());
+            return;
+        }
+        MoveList moves = new MoveList();
+        board.genLegalMoves(moves);
+        for (int i = 0; i < moves.size(); i++) {
+            board.makeMove(moves.get(i));
+            collect(board, depth - 1, keys);
+            board.takeBack(moves.get(i));
+        }
+    }
+}
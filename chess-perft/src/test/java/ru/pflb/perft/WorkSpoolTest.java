@@ -0,0 +1,58 @@
+package ru.pflb.perft;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Работники здесь - потоки одного процесса: обмениваются они все равно только через файлы спула.
+ *
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class WorkSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentWorkersCountEveryUnitOnce() throws Exception {
+        WorkSpool spool = new WorkSpool(folder.getRoot().toPath());
+        int units = spool.split(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 5, 3);
+
+        ExecutorService workers = Executors.newFixedThreadPool(3);
+        Future<Integer> first = workers.submit(spool::work);
+        Future<Integer> second = workers.submit(spool::work);
+        Future<Integer> third = workers.submit(spool::work);
+        int counted = first.get() + second.get() + third.get();
+        workers.shutdown();
+
+        // перестановки ходов белых сливаются в одну единицу
+        assertThat(units).isLessThan(2330);
+        assertThat(counted).isEqualTo(units);
+        assertThat(spool.reduce()).isEqualTo(482053);
+    }
+
+    @Test
+    public void requeueReturnsUnitsOfCrashedWorker() throws Exception {
+        Path root = folder.getRoot().toPath();
+        WorkSpool spool = new WorkSpool(root);
+        spool.split(new Board("4kb2/8/8/8/8/8/8/4K2R w - -"), 4, 1);
+        // работник взял единицу и упал
+        Files.move(root.resolve("pending/3"), root.resolve("running/3"));
+        spool.work();
+
+        assertThatThrownBy(spool::reduce).isInstanceOf(IllegalStateException.class);
+        assertThat(spool.requeue()).isEqualTo(1);
+        assertThat(spool.work()).isEqualTo(1);
+        assertThat(spool.reduce()).isEqualTo(27937);
+    }
+}
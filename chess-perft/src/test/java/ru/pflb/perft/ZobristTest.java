@@ -0,0 +1,53 @@
+package ru.pflb.perft;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static ru.pflb.perft.Piece.*;
+import static ru.pflb.perft.Square.*;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class ZobristTest {
+
+    @Test
+    public void incrementalKeyMatchesRecomputation() {
+        Board board = new Board("r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -");
+
+        walk(board, 3);
+    }
+
+    @Test
+    public void transpositionsHaveEqualKeys() {
+        Board first = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        first.makeMove(new Move(H1, H2, W_ROOK));
+        first.makeMove(new Move(E8, D8, B_KING));
+        first.makeMove(new Move(E1, D1, W_KING));
+
+        Board second = new Board("4kb2/8/8/8/8/8/8/4K2R w - -");
+        second.makeMove(new Move(E1, D1, W_KING));
+        second.makeMove(new Move(E8, D8, B_KING));
+        second.makeMove(new Move(H1, H2, W_ROOK));
+
+        assertThat(first.getKey()).isEqualTo(second.getKey());
+        assertThat(first.getKey()).isNotEqualTo(new Board("3k1b2/8/8/8/8/8/7R/3K4 w - -").getKey());
+        assertThat(first.getKey()).isEqualTo(new Board("3k1b2/8/8/8/8/8/7R/3K4 b - -").getKey());
+    }
+
+    private static void walk(Board board, int depth) {
+        if (depth == 0) {
+            return;
+        }
+        long key = board.getKey();
+        for (Move move : board.genAllMoves()) {
+            board.makeMove(move);
+            assertThat(board.getKey()).isEqualTo(board.computeKey());
+            if (!board.isCheck(board.getOpponentColor())) {
+                walk(board, depth - 1);
+            }
+            board.takeBack(move);
+            assertThat(board.getKey()).isEqualTo(key);
+        }
+    }
+}
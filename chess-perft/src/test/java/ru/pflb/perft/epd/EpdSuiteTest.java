@@ -0,0 +1,97 @@
+package ru.pflb.perft.epd;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class EpdSuiteTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String SUITE = ""
+            + "# короткая и длинная позиции из PerftTest\n"
+            + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 143 ;D3 2330 ;D4 27937\n"
+            + "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - - ;id \"long\"; D1 36 ;D2 842 ;D3 27986\r\n"
+            + "\n"
+            + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 144\n"
+            + "4kx2/8/8/8/8/8/8/4K2R w - - ;D1 14\n"
+            + "4k3/8/8/8/8/5n2/8/r3K3 w - - ;D1 2 ;D2 54 ;D9 1";
+
+    private Path write(String content) throws Exception {
+        Path file = folder.newFile("suite.epd").toPath();
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+        return file;
+    }
+
+    @Test
+    public void reportsPassedAndFailedRecords() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        EpdSuite suite = EpdSuite.open(write(SUITE));
+
+        EpdSuite.Report report = suite.run(2, 4, new PrintStream(output, true, "UTF-8"));
+
+        assertThat(suite.size()).isEqualTo(5);
+        assertThat(report.positions).isEqualTo(5);
+        assertThat(report.passed).isEqualTo(3);
+        assertThat(report.failed).isEqualTo(2);
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(text.split("\n")).hasSize(3);
+        assertThat(text).startsWith("FAIL 5: D2 ожидалось 144, получено 143\nFAIL 6: ошибка разбора FEN")
+                .contains("FAILED positions=5 passed=3 failed=2");
+    }
+
+    @Test
+    public void maxDepthLimitsChecks() throws Exception {
+        EpdSuite.Report report = EpdSuite.open(write(SUITE))
+                .run(1, 1, new PrintStream(new ByteArrayOutputStream()));
+
+        assertThat(report.checks).isEqualTo(4);
+        assertThat(report.passed).isEqualTo(4);
+    }
+
+    @Test
+    public void checkToSideNotToMoveIsBadFen() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // черный король под шахом при ходе белых: раньше позиция падала на взятии короля в perft
+        EpdSuite.Report report = EpdSuite.open(write(""
+                + "4k3/8/8/8/8/8/8/4R1K1 w - - ;D1 17 ;D2 100\n"
+                + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 143\n"))
+                .run(1, 2, new PrintStream(output, true, "UTF-8"));
+
+        assertThat(report.passed).isEqualTo(1);
+        assertThat(report.failed).isEqualTo(1);
+        assertThat(report.isOk()).isFalse();
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(text).startsWith("FAIL 1: ошибка разбора FEN: Король стороны, которая не ходит, под шахом").contains("FAILED positions=2 passed=1 failed=1");
+        assertThat(text.split("\n")).hasSize(2);
+    }
+
+    @Test
+    public void overflowingNumbersAreParseErrors() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // глубина переполняла int и падала на индексе массива, число - переполняло long
+        EpdSuite.Report report = EpdSuite.open(write(""
+                + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2147483648 1\n"
+                + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 9223372036854775808\n"
+                + "4kb2/8/8/8/8/8/8/4K2R w - - ;D1 14 ;D2 143\n"))
+                .run(1, 2, new PrintStream(output, true, "UTF-8"));
+
+        assertThat(report.passed).isEqualTo(1);
+        assertThat(report.failed).isEqualTo(2);
+        String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(text).startsWith("FAIL 1: ошибка разбора EPD: глубина Dn больше 15\n"
+                + "FAIL 2: ошибка разбора EPD: число D2 больше 9223372036854775807\n");
+    }
+}
@@ -0,0 +1,132 @@
+package ru.pflb.perft.server;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author <a href="mailto:8445322@gmail.com">Ivan Bonkin</a>.
+ */
+public class PerftServerTest {
+
+    private static final String SHORT = "4kb2/8/8/8/8/8/8/4K2R w - -";
+
+    private static final String LONG = "r3kb1r/8/8/4K3/8/8/8/2BQ1B2 w - -";
+
+    private static PerftServer server;
+
+    @BeforeClass
+    public static void start() throws IOException {
+        server = new PerftServer(new InetSocketAddress("127.0.0.1", 0), 1, 1, 6, 0);
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.close();
+    }
+
+    private static String get(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getPort() + path)
+                .openConnection();
+        int code = connection.getResponseCode();
+        try (InputStream in = code < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int n; (n = in.read(buffer)) > 0; ) {
+                body.write(buffer, 0, n);
+            }
+            return code + " " + new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String perft(String fen, int depth) throws IOException {
+        return get("/perft?fen=" + URLEncoder.encode(fen, "UTF-8") + "&depth=" + depth);
+    }
+
+    @Test
+    public void perftIsComputedOnceThenCached() throws IOException {
+        assertThat(perft(SHORT, 4)).startsWith("200 {\"depth\":4,\"nodes\":27937,\"source\":\"computed\"");
+        assertThat(perft(SHORT, 4)).startsWith("200 {\"depth\":4,\"nodes\":27937,\"source\":\"cache\"");
+        // другая запись той же позиции - тот же ключ
+        assertThat(perft("4kb2/8/8/8/8/8/8/4K2R w - - 0 1", 4)).contains("\"source\":\"cache\"");
+    }
+
+    @Test
+    public void identicalRequestsInFlightAreCoalesced() throws Exception {
+        long computations = server.getComputations();
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                responses.add(clients.submit((Callable<String>) () -> perft(LONG, 5)));
+            }
+            for (Future<String> response : responses) {
+                assertThat(response.get()).startsWith("200 {\"depth\":5,\"nodes\":23250211,");
+            }
+        } finally {
+            clients.shutdown();
+        }
+        // все 8 получили один расчет: в полете или уже из кеша
+        assertThat(server.getComputations() - computations).isEqualTo(1);
+    }
+
+    @Test
+    public void moves() throws IOException {
+        assertThat(get("/moves?fen=" + URLEncoder.encode("4k3/8/8/8/8/5n2/8/r3K3 w - -", "UTF-8")))
+                .startsWith("200 {\"count\":2,\"moves\":[");
+    }
+
+    @Test
+    public void badRequests() throws IOException {
+        assertThat(perft("4kb2/8/8/8/8/8/8/4K2X w - -", 1)).startsWith("400 {\"error\":");
+        assertThat(perft("4k3/8/8/8/8/8/8/4R1K1 w - -", 1))
+                .startsWith("400 {\"error\":\"Король стороны, которая не ходит, под шахом");
+        assertThat(perft(SHORT, 7)).startsWith("400 {\"error\":\"Глубина должна быть от 1 до 6: 7\"}");
+        assertThat(get("/perft?depth=1")).isEqualTo("400 {\"error\":\"Не задан параметр fen\"}");
+        assertThat(get("/perft?fen=" + URLEncoder.encode(SHORT, "UTF-8") + "&depth=x")).startsWith("400 {\"error\":");
+    }
+
+    @Test
+    public void controlCharactersInErrorAreEscaped() throws IOException {
+        assertThat(PerftServer.error("a\\b\"c\nd\re\tf\u0001g"))
+                .isEqualTo("{\"error\":\"a\\\\b\\\"c\\nd\\re\\tf\\u0001g\"}");
+        // сообщение FenParseException повторяет FEN из запроса
+        String response = perft("4kb2/8/8/8/8/8/8/4K2R\n w\t\u0001 - -", 1);
+        assertThat(response).startsWith("400 {\"error\":").contains("\\n").doesNotMatch("(?s).*[\\x00-\\x1f].*");
+    }
+
+    @Test
+    public void cacheEvictsLeastRecentlyUsedByMemory() {
+        ResultCache cache = new ResultCache(1);
+        int capacity = cache.getCapacity();
+        assertThat(capacity).isEqualTo(1024 * 1024 / ResultCache.ENTRY_BYTES);
+        for (int i = 0; i <= capacity; i++) {
+            cache.put(new ResultCache.Key(i, 1), i);
+            if (i == 0) {
+                cache.put(new ResultCache.Key(-1, 1), -1);
+            }
+            // первая запись все время используется и не вытесняется
+            assertThat(cache.get(new ResultCache.Key(0, 1))).isEqualTo(0L);
+        }
+        assertThat(cache.size()).isEqualTo(capacity);
+        assertThat(cache.get(new ResultCache.Key(-1, 1))).isNull();
+        assertThat(cache.get(new ResultCache.Key(capacity, 1))).isEqualTo(capacity);
+    }
+}